@@ -0,0 +1,123 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * The counters computed for one input, kept as primitives so that a result per file costs one small object.
+ * The columns are printed in the same order as wc does it: lines, words, chars, bytes and the max line length,
+ * followed by the estimated distinct words, kept as the sketch itself so the total can be the sketch of the union,
+ * then by the occurrences of every pattern, in the order the patterns were given, and by the Shannon entropy
+ * of the bytes, in bits per byte, computed from the 256 buckets of the byte histogram.
+ * The line stats come last, the min, mean, p50, p95, p99 and max of the line lengths, read from a sketch
+ * which is merged for the total like the one of the distinct words.
+ */
+
+public record CountResult(long lines, long words, long chars, long bytes, long maxLineLength,
+                          HyperLogLog vocabulary, long[] patternCounts, long[] byteHistogram,
+                          LineLengthSketch lineLengths) {
+
+    public static final CountResult EMPTY = new CountResult(0, 0, 0, 0, 0, null, null, null, null);
+
+    /**
+     * Adds the counters of another result to this one, used for the total line when more files are given.
+     * The max line length of the total is the longest line of all the files, not a sum,
+     * and the distinct words are estimated from the union of the sketches, a word found in two files counting once.
+     *
+     * @param other The result to be added.
+     * @return A new result with the summed counters.
+     */
+    public CountResult plus(CountResult other) {
+        return new CountResult(lines + other.lines, words + other.words,
+                chars + other.chars, bytes + other.bytes, Math.max(maxLineLength, other.maxLineLength),
+                HyperLogLog.union(vocabulary, other.vocabulary), sum(patternCounts, other.patternCounts),
+                sum(byteHistogram, other.byteHistogram), LineLengthSketch.union(lineLengths, other.lineLengths));
+    }
+
+    /**
+     * @return The estimated number of distinct words, 0 when they were not requested.
+     */
+    public long distinctWords() {
+        return vocabulary == null ? 0 : vocabulary.estimate();
+    }
+
+    /**
+     * @return The Shannon entropy of the bytes in bits per byte, from 0 for a single repeated byte
+     * to 8 for uniformly random bytes, 0 when the histogram was not requested or the input is empty.
+     */
+    public double entropy() {
+        if (byteHistogram == null) {
+            return 0;
+        }
+
+        long total = 0;
+        double entropy = 0;
+
+        for (long c : byteHistogram) {
+            total += c;
+        }
+
+        for (long c : byteHistogram) {
+            if (c > 0) {
+                double p = (double) c / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * Selects only the counters requested by the user, in the order in which they are printed.
+     *
+     * @param metrics The mask with the requested counters.
+     * @return The values of the requested counters.
+     */
+    public List<Number> columns(int metrics) {
+        List<Number> columns = new ArrayList<>(8);
+
+        if (Metrics.has(metrics, Metrics.LINES)) columns.add(lines);
+        if (Metrics.has(metrics, Metrics.WORDS)) columns.add(words);
+        if (Metrics.has(metrics, Metrics.CHARS)) columns.add(chars);
+        if (Metrics.has(metrics, Metrics.BYTES)) columns.add(bytes);
+        if (Metrics.has(metrics, Metrics.MAX_LINE_LENGTH)) columns.add(maxLineLength);
+        if (Metrics.has(metrics, Metrics.DISTINCT_WORDS)) columns.add(distinctWords());
+
+        if (Metrics.has(metrics, Metrics.PATTERNS) && patternCounts != null) {
+            for (long c : patternCounts) {
+                columns.add(c);
+            }
+        }
+
+        if (Metrics.has(metrics, Metrics.ENTROPY)) {
+            columns.add(BigDecimal.valueOf(entropy()).setScale(3, RoundingMode.HALF_UP));
+        }
+
+        if (Metrics.has(metrics, Metrics.LINE_STATS) && lineLengths != null) {
+            columns.add(lineLengths.min());
+            columns.add(BigDecimal.valueOf(lineLengths.mean()).setScale(1, RoundingMode.HALF_UP));
+            columns.add(lineLengths.quantile(0.50));
+            columns.add(lineLengths.quantile(0.95));
+            columns.add(lineLengths.quantile(0.99));
+            columns.add(lineLengths.max());
+        }
+
+        return columns;
+    }
+
+    private static long[] sum(long[] first, long[] second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+
+        long[] sum = new long[first.length];
+
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] = first[i] + second[i];
+        }
+
+        return sum;
+    }
+}
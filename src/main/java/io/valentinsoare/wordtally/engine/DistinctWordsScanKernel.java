@@ -0,0 +1,38 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The kernel for the distinct words, it wraps the kernel of the encoding and, in the same buffer, hashes every word
+ * into the HyperLogLog of the ScanState. The words cut by the ends of the range are kept as HashFragments,
+ * which the ScanState glues to its neighbours when the ranges are merged, so a word split between two chunks
+ * is still sketched once. The words are split on the whitespace bytes, so only the encodings
+ * where a whitespace is a single byte, UTF-8 and the single byte ones, can be counted this way.
+ */
+
+final class DistinctWordsScanKernel implements ScanKernel {
+    private final ScanKernel kernel;
+
+    DistinctWordsScanKernel(ScanKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        kernel.scan(buffer, state, metrics);
+
+        if (!Metrics.has(metrics, Metrics.DISTINCT_WORDS) || !buffer.hasRemaining()) {
+            return;
+        }
+
+        if (state.vocabulary == null) {
+            state.vocabulary = new HyperLogLog();
+        }
+
+        HashFragments fragments = Tokenizer.hashes(buffer, state.vocabulary);
+
+        state.wordFragments = state.wordFragments == null
+                ? fragments
+                : state.wordFragments.append(fragments, state.vocabulary);
+    }
+}
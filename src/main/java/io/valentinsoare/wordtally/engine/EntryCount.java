@@ -0,0 +1,7 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * The counters of one entry of an archive, with the name of the entry inside the archive.
+ */
+
+public record EntryCount(String name, CountResult result) {}
@@ -0,0 +1,52 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/***
+ * Here we count everything that was requested for a file in one single pass over its content.
+ * The file is read once through a FileChannel in fixed-size chunks, and each chunk goes through all the
+ * requested counters before the next one is read, instead of opening and reading the same file once per counter.
+ * The counting itself is done by the kernel on a ScanState that is carried from one chunk to the next.
+ */
+
+@Component
+public class FusedScanEngine {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public FusedScanEngine() {}
+
+    /**
+     * Reads the file only once and computes all the counters requested in the mask.
+     *
+     * @param inputFile The file to be counted.
+     * @param settings  The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters for the file.
+     * @throws IOException If the file cannot be opened or read, or it is malformed and the policy is REPORT.
+     */
+    public CountResult scan(Path inputFile, ScanSettings settings) throws IOException {
+        ScanState state = new ScanState();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        ScanKernel kernel = null;
+
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+
+                if (kernel == null) {
+                    kernel = ScanKernels.forInput(settings, buffer, state);
+                }
+
+                kernel.scan(buffer, state, settings.metrics());
+                buffer.clear();
+            }
+        }
+
+        return state.toResult(settings);
+    }
+}
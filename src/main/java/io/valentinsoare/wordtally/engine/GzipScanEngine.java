@@ -0,0 +1,199 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+/***
+ * Here we count a gzip file as the bytes it decompresses to, as zcat | wordtally would, without the pipe.
+ * A bgzip file is a series of small gzip members whose headers hold the compressed size of the member,
+ * so the members are found by walking the headers alone, nothing being inflated, and consecutive members
+ * are grouped into ranges that are inflated and counted on all the cores, the partial ScanStates being merged
+ * in the order of the ranges like the regions of the MappedScanEngine. Any other gzip file, one member
+ * or several concatenated without their sizes, can only be split by inflating it, so it is inflated
+ * on one thread and counted by the PipelinedScanEngine while it is being inflated. UTF-16 is inflated
+ * on one thread too, since a member may end in the middle of a code unit.
+ */
+
+@Component
+public class GzipScanEngine {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long MIN_RANGE_SIZE = 1024L * 1024;
+    private static final long MAX_RANGE_SIZE = 16L * 1024 * 1024;
+    private static final int HEADER_SIZE = 18;
+    private static final int FLAG_EXTRA = 4;
+    private static final int HEAD_SIZE = 4;
+
+    private final PipelinedScanEngine pipelinedScanEngine;
+
+    @Autowired
+    public GzipScanEngine(PipelinedScanEngine pipelinedScanEngine) {
+        this.pipelinedScanEngine = pipelinedScanEngine;
+    }
+
+    /**
+     * @return If the file starts with the magic bytes of gzip.
+     */
+    public static boolean isGzip(Path inputFile) throws IOException {
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        }
+    }
+
+    /**
+     * Counts the decompressed content of the file, on all the cores when it is made of bgzip members.
+     *
+     * @param inputFile The gzip file to be counted.
+     * @param settings  The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters for the decompressed content.
+     * @throws IOException If the file cannot be read or is not valid gzip, or it is malformed and the policy is REPORT.
+     */
+    public CountResult scan(Path inputFile, ScanSettings settings) throws IOException {
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            boolean isUtf16 = EnumSet.of(TextEncoding.UTF_16, TextEncoding.UTF_16BE, TextEncoding.UTF_16LE)
+                    .contains(settings.encoding());
+            List<Long> ranges = isUtf16 ? List.of() : findRanges(channel);
+
+            if (ranges.size() < 3) {
+                try (InputStream in = new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+                    return pipelinedScanEngine.scan(in, settings);
+                }
+            }
+
+            ScanState first = new ScanState();
+            ByteBuffer head = headOf(channel);
+            ScanKernel kernel = ScanKernels.forInput(settings, head, first);
+            int skipped = head.position();
+
+            return IntStream.range(0, ranges.size() - 1)
+                    .parallel()
+                    .mapToObj(r -> countRange(channel, kernel, ranges.get(r), ranges.get(r + 1),
+                            r == 0 ? first : new ScanState(), r == 0 ? skipped : 0, settings.metrics()))
+                    .collect(ScanState::new, ScanState::append, ScanState::append)
+                    .toResult(settings);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Walks the headers of the bgzip members, grouping them into ranges of about the same compressed size.
+     *
+     * @return The offsets where the ranges start, followed by the size of the file, or nothing when the file
+     * is not made only of bgzip members.
+     */
+    private List<Long> findRanges(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long rangeSize = Math.min(MAX_RANGE_SIZE,
+                Math.max(MIN_RANGE_SIZE, size / (Runtime.getRuntime().availableProcessors() * 4L)));
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 256).order(ByteOrder.LITTLE_ENDIAN);
+        List<Long> ranges = new ArrayList<>(List.of(0L));
+
+        for (long offset = 0; offset < size; ) {
+            long memberSize = memberSizeAt(channel, offset, header);
+
+            if (memberSize <= 0) {
+                return List.of();
+            }
+
+            offset += memberSize;
+
+            if (offset - ranges.get(ranges.size() - 1) >= rangeSize || offset >= size) {
+                ranges.add(offset);
+            }
+        }
+
+        return ranges.get(ranges.size() - 1) == size ? ranges : List.of();
+    }
+
+    /**
+     * @return The size of the member from the BC field of its header, or 0 if the header is not the one of bgzip.
+     */
+    private long memberSizeAt(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+        header.clear();
+        readFully(channel, header, offset);
+        header.flip();
+
+        if (header.remaining() < HEADER_SIZE || (header.get(0) & 0xFF) != 0x1F || (header.get(1) & 0xFF) != 0x8B
+                || header.get(2) != 8 || (header.get(3) & FLAG_EXTRA) == 0) {
+            return 0;
+        }
+
+        int extraLength = header.getShort(10) & 0xFFFF;
+
+        for (int at = 12; at + 4 <= Math.min(12 + extraLength, header.limit()); ) {
+            int fieldLength = header.getShort(at + 2) & 0xFFFF;
+
+            if (header.get(at) == 'B' && header.get(at + 1) == 'C' && fieldLength == 2 && at + 6 <= header.limit()) {
+                return (header.getShort(at + 4) & 0xFFFF) + 1L;
+            }
+
+            at += 4 + fieldLength;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return The first bytes of the content, for the byte order mark, inflating the first member alone.
+     */
+    private ByteBuffer headOf(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 256).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (InputStream in = inflate(channel, 0, memberSizeAt(channel, 0, header))) {
+            return ByteBuffer.wrap(in.readNBytes(HEAD_SIZE));
+        }
+    }
+
+    private static InputStream inflate(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate((int) (to - from));
+        readFully(channel, compressed, from);
+
+        return new GZIPInputStream(new ByteArrayInputStream(compressed.array(), 0, compressed.position()), BUFFER_SIZE);
+    }
+
+    /**
+     * Fills the buffer from the given offset, or with what is left of the file, the positional reads being
+     * safe from any thread.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        int readBytes;
+
+        do {
+            readBytes = channel.read(buffer, offset + buffer.position());
+        } while (readBytes > 0 && buffer.hasRemaining());
+    }
+
+    private ScanState countRange(FileChannel channel, ScanKernel kernel, long from, long to,
+                                 ScanState state, int skipped, int metrics) {
+        try (InputStream in = inflate(channel, from, to)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            int readBytes;
+
+            in.skipNBytes(skipped);
+
+            while ((readBytes = in.readNBytes(buffer.array(), 0, CHUNK_SIZE)) > 0) {
+                buffer.clear().limit(readBytes);
+                kernel.scan(buffer, state, metrics);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return state;
+    }
+}
@@ -0,0 +1,94 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The words cut by the ends of a range for the distinct words, which only need the hash of a word and not its bytes.
+ * As in TokenFragments, the head is the piece before the first whitespace of the range and the tail the piece
+ * after the last one, but each is kept as the unfinished TokenHash of its bytes and its length, which is all
+ * it takes to join it with the piece of the neighbouring range. So a word longer than any chunk, even a whole
+ * input without whitespace, is carried in a few bytes, however many ranges it is cut into.
+ */
+
+final class HashFragments {
+    private long head;
+    private long headLength;
+    private long tail;
+    private long tailLength;
+    private boolean whole;
+
+    private HashFragments(long head, long headLength, long tail, long tailLength, boolean whole) {
+        this.head = head;
+        this.headLength = headLength;
+        this.tail = tail;
+        this.tailLength = tailLength;
+        this.whole = whole;
+    }
+
+    /**
+     * @return The fragments of a range without any whitespace, a piece of a single word.
+     */
+    static HashFragments whole(ByteBuffer buffer, int from, int to) {
+        return new HashFragments(TokenHash.partOf(buffer, from, to - from), to - from, TokenHash.EMPTY, 0, true);
+    }
+
+    /**
+     * @return The fragments of a range with whitespace, the pieces before the first and after the last one.
+     */
+    static HashFragments cut(ByteBuffer buffer, int from, int headEnd, int tailStart, int to) {
+        return new HashFragments(TokenHash.partOf(buffer, from, headEnd - from), headEnd - from,
+                TokenHash.partOf(buffer, tailStart, to - tailStart), to - tailStart, false);
+    }
+
+    /**
+     * @return The fragments of an empty input.
+     */
+    static HashFragments empty() {
+        return new HashFragments(TokenHash.EMPTY, 0, TokenHash.EMPTY, 0, true);
+    }
+
+    /**
+     * Appends the fragments of the range right after this one, the word completed at the boundary goes to the sketch.
+     *
+     * @param next   The fragments of the following range.
+     * @param sketch The sketch receiving the completed word.
+     * @return This fragments, now covering both ranges.
+     */
+    HashFragments append(HashFragments next, HyperLogLog sketch) {
+        if (whole) {
+            head = TokenHash.join(head, next.head, next.headLength);
+            headLength += next.headLength;
+            tail = next.tail;
+            tailLength = next.tailLength;
+            whole = next.whole;
+        } else if (next.whole) {
+            tail = TokenHash.join(tail, next.head, next.headLength);
+            tailLength += next.headLength;
+        } else {
+            addTo(sketch, TokenHash.join(tail, next.head, next.headLength), tailLength + next.headLength);
+            tail = next.tail;
+            tailLength = next.tailLength;
+        }
+
+        return this;
+    }
+
+    /**
+     * Closes the range as a whole input, its head and tail being complete words.
+     *
+     * @param sketch The sketch receiving the words.
+     */
+    void flush(HyperLogLog sketch) {
+        addTo(sketch, head, headLength);
+
+        if (!whole) {
+            addTo(sketch, tail, tailLength);
+        }
+    }
+
+    private static void addTo(HyperLogLog sketch, long hash, long length) {
+        if (length > 0) {
+            sketch.add(TokenHash.finish(hash));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The kernel for the byte histogram, it wraps the kernel of the encoding and, in the same buffer, counts
+ * every byte value into the 256 buckets of the ScanState. Each range has its own buckets, summed when
+ * the ranges are merged, so the threads never share a counter. Inside a buffer the bytes go alternately
+ * into four int tables, so that a run of the same byte does not wait on its own previous increment,
+ * and the tables are folded into the buckets once the buffer is done.
+ */
+
+final class HistogramScanKernel implements ScanKernel {
+    private static final int BUCKETS = 256;
+
+    private final ScanKernel kernel;
+
+    HistogramScanKernel(ScanKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        kernel.scan(buffer, state, metrics);
+
+        if (!Metrics.has(metrics, Metrics.HISTOGRAM | Metrics.ENTROPY) || !buffer.hasRemaining()) {
+            return;
+        }
+
+        if (state.byteHistogram == null) {
+            state.byteHistogram = new long[BUCKETS];
+        }
+
+        count(buffer, state.byteHistogram);
+    }
+
+    private static void count(ByteBuffer buffer, long[] histogram) {
+        int[] first = new int[BUCKETS], second = new int[BUCKETS], third = new int[BUCKETS], fourth = new int[BUCKETS];
+        int i = buffer.position(), to = buffer.limit();
+
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buffer.getLong(i);
+
+            first[(int) word & 0xFF]++;
+            second[(int) (word >>> 8) & 0xFF]++;
+            third[(int) (word >>> 16) & 0xFF]++;
+            fourth[(int) (word >>> 24) & 0xFF]++;
+            first[(int) (word >>> 32) & 0xFF]++;
+            second[(int) (word >>> 40) & 0xFF]++;
+            third[(int) (word >>> 48) & 0xFF]++;
+            fourth[(int) (word >>> 56) & 0xFF]++;
+        }
+
+        for (; i < to; i++) {
+            first[buffer.get(i) & 0xFF]++;
+        }
+
+        for (int b = 0; b < BUCKETS; b++) {
+            histogram[b] += (long) first[b] + second[b] + third[b] + fourth[b];
+        }
+    }
+}
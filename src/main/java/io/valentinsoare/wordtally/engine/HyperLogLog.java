@@ -0,0 +1,120 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * A HyperLogLog sketch estimating the number of distinct words, with 2^14 registers of one byte, 16 KB for any input.
+ * The top 14 bits of the 64-bit hash of a token pick a register, which keeps the highest rank seen there,
+ * the position of the first set bit in the rest of the hash. Two sketches merge by taking the highest rank
+ * of every register, exactly the sketch of the union of their inputs, so the chunks, the regions and the files
+ * can be sketched apart and merged in any order. The standard error of the estimate is 1.04 / sqrt(2^14), about 0.8%.
+ * The estimate uses the improved raw estimator of Otmar Ertl, which stays unbiased from a few words
+ * to billions without the empirical bias tables of HyperLogLog++.
+ */
+
+public final class HyperLogLog implements TokenSink {
+    private static final int PRECISION = 14;
+    private static final int NUMBER_OF_REGISTERS = 1 << PRECISION;
+    private static final int MAX_RANK = Long.SIZE - PRECISION + 1;
+
+    private final byte[] registers = new byte[NUMBER_OF_REGISTERS];
+
+    public HyperLogLog() {}
+
+    public void add(long hash) {
+        int register = (int) (hash >>> (Long.SIZE - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    @Override
+    public void add(ByteBuffer source, int from, int length, long hash) {
+        add(hash);
+    }
+
+    /**
+     * Merges another sketch into this one, the other sketch is left as it is.
+     */
+    public void addAll(HyperLogLog other) {
+        for (int i = 0; i < NUMBER_OF_REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return A new sketch of the union of the inputs of both sketches, null only when both are null.
+     */
+    public static HyperLogLog union(HyperLogLog first, HyperLogLog second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+
+        HyperLogLog union = new HyperLogLog();
+
+        System.arraycopy(first.registers, 0, union.registers, 0, NUMBER_OF_REGISTERS);
+        union.addAll(second);
+
+        return union;
+    }
+
+    /**
+     * @return The estimated number of distinct tokens added to the sketch.
+     */
+    public long estimate() {
+        int[] histogram = new int[MAX_RANK + 1];
+
+        for (byte r : registers) {
+            histogram[r]++;
+        }
+
+        double m = NUMBER_OF_REGISTERS;
+        double z = m * tau(1 - histogram[MAX_RANK] / m);
+
+        for (int k = MAX_RANK - 1; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+
+        z += m * sigma(histogram[0] / m);
+
+        return Math.round(m * m / (2 * Math.log(2)) / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double y = 1, z = x, previous;
+
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+
+        double y = 1, z = 1 - x, previous;
+
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+
+        return z / 3;
+    }
+}
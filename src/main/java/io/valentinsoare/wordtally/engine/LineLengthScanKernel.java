@@ -0,0 +1,218 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The kernel for the max line length (-L), it wraps the kernel of the encoding and measures the display width
+ * of the lines in the same buffer, right after the other counters are done with it, so the input is still read once.
+ * The width follows GNU wc: a tab moves to the next multiple of 8, a newline, a carriage return or a form feed
+ * end the line, the control chars and the malformed sequences take no room, the combining marks neither,
+ * and the East Asian wide chars take two columns. The state is kept in a LineLengthState, which carries
+ * the partial lines and code points at both ends of a range, so the engines can still merge the ranges in order.
+ */
+
+final class LineLengthScanKernel implements ScanKernel {
+    private static final int UTF_8_UNIT_BITS = 6;
+    private static final int UTF_16_UNIT_BITS = 10;
+    private static final int SUPPLEMENTARY_OFFSET = 0x10000;
+
+    private final ScanKernel kernel;
+    private final TextEncoding encoding;
+
+    /**
+     * @param kernel   The kernel counting the other metrics of the same encoding.
+     * @param encoding The resolved encoding of the input, UTF-16 with its byte order.
+     */
+    LineLengthScanKernel(ScanKernel kernel, TextEncoding encoding) {
+        this.kernel = kernel;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        kernel.scan(buffer, state, metrics);
+
+        if (!Metrics.has(metrics, Metrics.MAX_LINE_LENGTH)) {
+            return;
+        }
+
+        if (state.lineLength == null) {
+            boolean isUtf16 = encoding == TextEncoding.UTF_16BE || encoding == TextEncoding.UTF_16LE;
+
+            state.lineLength = isUtf16
+                    ? new LineLengthState(UTF_16_UNIT_BITS, SUPPLEMENTARY_OFFSET)
+                    : new LineLengthState(UTF_8_UNIT_BITS, 0);
+        }
+
+        switch (encoding) {
+            case UTF_16BE -> measureUtf16(buffer, state.lineLength, ByteOrder.BIG_ENDIAN);
+            case UTF_16LE -> measureUtf16(buffer, state.lineLength, ByteOrder.LITTLE_ENDIAN);
+            case SINGLE_BYTE -> measureSingleByte(buffer, state.lineLength);
+            default -> measureUtf8(buffer, state.lineLength);
+        }
+    }
+
+    private static void measureUtf8(ByteBuffer buffer, LineLengthState state) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            int b = buffer.get(i) & 0xFF;
+            boolean isContinuation = b >= ScalarScanKernel.CONTINUATION_MIN && b <= ScalarScanKernel.CONTINUATION_MAX;
+
+            if (state.openMissing > 0) {
+                if (isContinuation) {
+                    int codePoint = state.continueCodePoint(b & 0x3F);
+
+                    if (codePoint >= 0 && isValid(codePoint, state.openLength)) {
+                        state.advance(widthOf(codePoint));
+                    }
+
+                    continue;
+                }
+
+                state.openMissing = 0;
+            }
+
+            if (b < 0x80) {
+                state.synchronizedOnCodePoints = true;
+                measureAscii(b, state);
+            } else if (isContinuation) {
+                if (!state.synchronizedOnCodePoints) {
+                    state.addHeadUnit(b & 0x3F);
+                }
+            } else {
+                int continuationBytes = ScalarScanKernel.continuationBytesAfter(b);
+
+                state.synchronizedOnCodePoints = true;
+
+                if (continuationBytes > 0) {
+                    state.openCodePoint(b & (0x3F >> continuationBytes), continuationBytes, continuationBytes + 1);
+                }
+            }
+        }
+    }
+
+    private static void measureUtf16(ByteBuffer buffer, LineLengthState state, ByteOrder order) {
+        ByteBuffer units = buffer.duplicate().order(order);
+        int i = buffer.position(), to = buffer.limit();
+
+        if (i < to && state.pendingByte >= 0) {
+            int first = state.pendingByte, second = buffer.get(i) & 0xFF;
+
+            state.pendingByte = -1;
+            measureUnit((char) (order == ByteOrder.BIG_ENDIAN ? first << 8 | second : second << 8 | first), state);
+            i += 1;
+        }
+
+        for (; to - i >= Character.BYTES; i += Character.BYTES) {
+            measureUnit(units.getChar(i), state);
+        }
+
+        if (i < to) {
+            state.pendingByte = buffer.get(i) & 0xFF;
+        }
+    }
+
+    private static void measureUnit(char unit, LineLengthState state) {
+        if (state.openMissing > 0) {
+            if (Character.isLowSurrogate(unit)) {
+                state.advance(widthOf(state.continueCodePoint(unit & 0x3FF)));
+                return;
+            }
+
+            state.openMissing = 0;
+        }
+
+        if (Character.isHighSurrogate(unit)) {
+            state.synchronizedOnCodePoints = true;
+            state.openCodePoint(unit & 0x3FF, 1, 4);
+        } else if (Character.isLowSurrogate(unit)) {
+            if (!state.synchronizedOnCodePoints) {
+                state.addHeadUnit(unit & 0x3FF);
+            }
+        } else {
+            state.synchronizedOnCodePoints = true;
+
+            if (unit < 0x80) {
+                measureAscii(unit, state);
+            } else {
+                state.advance(widthOf(unit));
+            }
+        }
+    }
+
+    /**
+     * Every byte is a char here, the ones from 0xA0 up are printable in ISO-8859-1 and the single byte code pages.
+     */
+    private static void measureSingleByte(ByteBuffer buffer, LineLengthState state) {
+        state.synchronizedOnCodePoints = true;
+
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            int b = buffer.get(i) & 0xFF;
+
+            if (b < 0x80) {
+                measureAscii(b, state);
+            } else if (b >= 0xA0) {
+                state.advance(1);
+            }
+        }
+    }
+
+    private static void measureAscii(int c, LineLengthState state) {
+        if (c >= ' ' && c < 0x7F) {
+            state.advance(1);
+        } else if (c == '\t') {
+            state.tab();
+        } else if (c == '\n' || c == '\r' || c == '\f') {
+            state.lineBreak();
+        }
+    }
+
+    /**
+     * @param codePoint The code point decoded from a sequence of the given length.
+     * @param length    The number of bytes of the UTF-8 sequence, 4 for a UTF-16 surrogate pair.
+     * @return False for the overlong forms, the surrogates and anything above U+10FFFF, like the decoder.
+     */
+    static boolean isValid(int codePoint, int length) {
+        return switch (length) {
+            case 2 -> codePoint >= 0x80;
+            case 3 -> codePoint >= 0x800 && !Character.isSurrogate((char) codePoint);
+            default -> codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT && codePoint <= Character.MAX_CODE_POINT;
+        };
+    }
+
+    /**
+     * The number of columns a code point takes on a terminal, as wcwidth gives it.
+     *
+     * @param codePoint A valid code point, outside of ASCII.
+     * @return 0, 1 or 2.
+     */
+    static int widthOf(int codePoint) {
+        if (codePoint < 0xA0 || codePoint == 0x200B || (codePoint >= 0x1160 && codePoint <= 0x11FF)) {
+            return 0;
+        }
+
+        int type = Character.getType(codePoint);
+
+        if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.UNASSIGNED
+                || type == Character.SURROGATE || (type == Character.FORMAT && codePoint != 0xAD)) {
+            return 0;
+        }
+
+        return isWide(codePoint) ? 2 : 1;
+    }
+
+    private static boolean isWide(int c) {
+        return (c >= 0x1100 && c <= 0x115F) || c == 0x2329 || c == 0x232A
+                || (c >= 0x2E80 && c <= 0xA4CF && c != 0x303F)
+                || (c >= 0xAC00 && c <= 0xD7A3)
+                || (c >= 0xF900 && c <= 0xFAFF)
+                || (c >= 0xFE10 && c <= 0xFE19)
+                || (c >= 0xFE30 && c <= 0xFE6F)
+                || (c >= 0xFF00 && c <= 0xFF60)
+                || (c >= 0xFFE0 && c <= 0xFFE6)
+                || (c >= 0x1F300 && c <= 0x1F64F)
+                || (c >= 0x1F900 && c <= 0x1F9FF)
+                || (c >= 0x20000 && c <= 0x2FFFD)
+                || (c >= 0x30000 && c <= 0x3FFFD);
+    }
+}
@@ -0,0 +1,134 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.util.Arrays;
+
+/***
+ * A log-linear histogram of the line lengths in bytes, answering the quantiles of the distribution in constant memory.
+ * The lengths below 64 get a bucket each, and every power of two above is split into 32 buckets of equal width,
+ * so a bucket is never wider than 1/32 of the lengths it holds and a quantile is given at most about 3% above
+ * the real one, never below it, whatever the number of lines. The minimum, the maximum and the mean are exact.
+ * Two sketches merge by adding their buckets, which gives exactly the sketch of both inputs, so the chunks,
+ * the regions and the files can be sketched apart and merged in any order, the total of many files included.
+ */
+
+public final class LineLengthSketch {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int NUMBER_OF_BUCKETS = LINEAR_LIMIT + (Long.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final long[] buckets = new long[NUMBER_OF_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LineLengthSketch() {}
+
+    public void add(long length) {
+        buckets[indexOf(length)]++;
+        count++;
+        sum += length;
+        min = Math.min(min, length);
+        max = Math.max(max, length);
+    }
+
+    /**
+     * Merges another sketch into this one, the other sketch is left as it is.
+     */
+    public void addAll(LineLengthSketch other) {
+        for (int b = 0; b < NUMBER_OF_BUCKETS; b++) {
+            buckets[b] += other.buckets[b];
+        }
+
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return A new sketch of the lines of both sketches, null only when both are null.
+     */
+    public static LineLengthSketch union(LineLengthSketch first, LineLengthSketch second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+
+        LineLengthSketch union = new LineLengthSketch();
+
+        union.addAll(first);
+        union.addAll(second);
+
+        return union;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1.
+     * @return The length at most q of the lines are longer than, rounded up to the end of its bucket, 0 without lines.
+     */
+    public long quantile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+
+        for (int b = 0; b < NUMBER_OF_BUCKETS; b++) {
+            seen += buckets[b];
+
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, upperBoundOf(b)));
+            }
+        }
+
+        return max;
+    }
+
+    static int indexOf(long length) {
+        if (length < LINEAR_LIMIT) {
+            return (int) length;
+        }
+
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(length);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (length >>> shift) - SUB_BUCKETS;
+
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowerBound = (long) (SUB_BUCKETS + (index - LINEAR_LIMIT) % SUB_BUCKETS) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LineLengthSketch[count=%d, min=%d, max=%d, buckets=%s]", count, min(), max,
+                Arrays.stream(buckets).filter(c -> c > 0).count());
+    }
+}
@@ -0,0 +1,221 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * The running state of the max line length (-L) for one contiguous range of bytes, kept next to the ScanState.
+ * A tab moves the column to the next multiple of 8, so the width of a line cut by the start of the range depends
+ * on the column where it started, which is only known after the merge. That first partial line is kept as a segment:
+ * its width up to the first tab, whether it has a tab at all, and the column after that tab counted from a tab stop,
+ * which is enough to compute where it ends from any starting column. Segments compose in order, so two ranges
+ * merge into one with the same widths as if the lines were measured from the beginning of the input.
+ * The code point cut by the boundary is kept as well, its bits at the end of a range and at the head of the next one.
+ */
+
+final class LineLengthState {
+    static final int TAB_SIZE = 8;
+
+    private static final int MAX_HEAD_UNITS = 3;
+
+    private final int bitsPerUnit;
+    private final int codePointOffset;
+
+    boolean lineBroken;
+    long leadingWidth;
+    boolean leadingTabbed;
+    long leadingRest;
+    long longestLine;
+    long column;
+
+    boolean synchronizedOnCodePoints;
+    int headBits;
+    int headUnits;
+    int openBits;
+    int openMissing;
+    int openLength;
+    int pendingByte = -1;
+
+    /**
+     * @param bitsPerUnit     How many bits of the code point a continuation unit carries, 6 for UTF-8, 10 for UTF-16.
+     * @param codePointOffset What is added to the bits of a completed sequence, 0x10000 for a UTF-16 surrogate pair.
+     */
+    LineLengthState(int bitsPerUnit, int codePointOffset) {
+        this.bitsPerUnit = bitsPerUnit;
+        this.codePointOffset = codePointOffset;
+    }
+
+    void advance(int width) {
+        if (lineBroken) {
+            column += width;
+        } else if (leadingTabbed) {
+            leadingRest += width;
+        } else {
+            leadingWidth += width;
+        }
+    }
+
+    void tab() {
+        if (lineBroken) {
+            column = nextTabStop(column);
+        } else if (leadingTabbed) {
+            leadingRest = nextTabStop(leadingRest);
+        } else {
+            leadingTabbed = true;
+            leadingRest = 0;
+        }
+    }
+
+    void lineBreak() {
+        if (lineBroken) {
+            longestLine = Math.max(longestLine, column);
+        }
+
+        lineBroken = true;
+        column = 0;
+    }
+
+    /**
+     * A continuation unit seen before anything else in the range, it may complete the code point left open
+     * at the end of the previous range.
+     */
+    void addHeadUnit(int bits) {
+        if (headUnits < MAX_HEAD_UNITS) {
+            headBits = (headBits << bitsPerUnit) | bits;
+        }
+
+        headUnits += 1;
+    }
+
+    void openCodePoint(int bits, int missingUnits, int length) {
+        openBits = bits;
+        openMissing = missingUnits;
+        openLength = length;
+    }
+
+    /**
+     * Adds the next unit to the open code point.
+     *
+     * @return The completed code point, -1 when it still misses units.
+     */
+    int continueCodePoint(int bits) {
+        openBits = (openBits << bitsPerUnit) | bits;
+        openMissing -= 1;
+
+        return openMissing == 0 ? openBits + codePointOffset : -1;
+    }
+
+    /**
+     * Appends the range measured in the next state right after the range of this one.
+     *
+     * @param next The state of the range that follows this one.
+     */
+    void append(LineLengthState next) {
+        if (!synchronizedOnCodePoints) {
+            for (int u = 0; u < Math.min(next.headUnits, MAX_HEAD_UNITS); u++) {
+                int shift = bitsPerUnit * (Math.min(next.headUnits, MAX_HEAD_UNITS) - 1 - u);
+                addHeadUnit((next.headBits >>> shift) & ((1 << bitsPerUnit) - 1));
+            }
+
+            headUnits += Math.max(0, next.headUnits - MAX_HEAD_UNITS);
+            copyFrom(next);
+            return;
+        }
+
+        if (!next.synchronizedOnCodePoints && openMissing > next.headUnits) {
+            for (int u = 0; u < next.headUnits; u++) {
+                int shift = bitsPerUnit * (next.headUnits - 1 - u);
+                continueCodePoint((next.headBits >>> shift) & ((1 << bitsPerUnit) - 1));
+            }
+
+            pendingByte = next.pendingByte;
+            return;
+        }
+
+        int junctionWidth = junctionWidth(next);
+
+        if (!lineBroken) {
+            composeLeading(junctionWidth, false, 0);
+            composeLeading(next.leadingWidth, next.leadingTabbed, next.leadingRest);
+
+            if (next.lineBroken) {
+                lineBroken = true;
+                longestLine = next.longestLine;
+                column = next.column;
+            }
+        } else {
+            long joined = endOfSegment(next.leadingWidth, next.leadingTabbed, next.leadingRest, column + junctionWidth);
+
+            if (next.lineBroken) {
+                longestLine = Math.max(Math.max(longestLine, next.longestLine), joined);
+                column = next.column;
+            } else {
+                column = joined;
+            }
+        }
+
+        openBits = next.openBits;
+        openMissing = next.openMissing;
+        openLength = next.openLength;
+        pendingByte = next.pendingByte;
+    }
+
+    /**
+     * Closes the range as the whole input, starting at column 0, a code point left open at the end has no width.
+     *
+     * @return The width of the longest line.
+     */
+    long maxLineLength() {
+        long firstLine = endOfSegment(leadingWidth, leadingTabbed, leadingRest, 0);
+
+        if (!lineBroken) {
+            return firstLine;
+        }
+
+        return Math.max(Math.max(longestLine, firstLine), column);
+    }
+
+    static long nextTabStop(long column) {
+        return (column / TAB_SIZE + 1) * TAB_SIZE;
+    }
+
+    /**
+     * @return The column after the segment, when it starts at the given column.
+     */
+    private static long endOfSegment(long width, boolean tabbed, long rest, long startColumn) {
+        return tabbed ? nextTabStop(startColumn + width) + rest : startColumn + width;
+    }
+
+    private void composeLeading(long width, boolean tabbed, long rest) {
+        if (leadingTabbed) {
+            leadingRest = endOfSegment(width, tabbed, rest, leadingRest);
+        } else {
+            leadingWidth += width;
+            leadingTabbed = tabbed;
+            leadingRest = rest;
+        }
+    }
+
+    private int junctionWidth(LineLengthState next) {
+        if (openMissing == 0 || next.headUnits < openMissing) {
+            return 0;
+        }
+
+        int storedUnits = Math.min(next.headUnits, MAX_HEAD_UNITS);
+        int codePoint = ((openBits << (bitsPerUnit * openMissing))
+                | (next.headBits >>> (bitsPerUnit * (storedUnits - openMissing)))) + codePointOffset;
+
+        return LineLengthScanKernel.isValid(codePoint, openLength) ? LineLengthScanKernel.widthOf(codePoint) : 0;
+    }
+
+    private void copyFrom(LineLengthState other) {
+        synchronizedOnCodePoints = other.synchronizedOnCodePoints;
+        lineBroken = other.lineBroken;
+        leadingWidth = other.leadingWidth;
+        leadingTabbed = other.leadingTabbed;
+        leadingRest = other.leadingRest;
+        longestLine = other.longestLine;
+        column = other.column;
+        openBits = other.openBits;
+        openMissing = other.openMissing;
+        openLength = other.openLength;
+        pendingByte = other.pendingByte;
+    }
+}
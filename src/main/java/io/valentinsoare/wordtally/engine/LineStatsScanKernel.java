@@ -0,0 +1,69 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The kernel for the line length distribution, it wraps the kernel of the encoding and, in the same buffer,
+ * measures every line in bytes, without its newline, into the LineStatsState of the ScanState.
+ * The newlines are found 8 bytes at a time: the bytes of a long equal to a newline are turned
+ * into their high bits, exactly, without the false positives of the cheaper test, and every set bit
+ * is one line, its position given by the trailing zeros, the long being read in little-endian order.
+ */
+
+final class LineStatsScanKernel implements ScanKernel {
+    private static final VarHandle LONG_LITTLE_ENDIAN =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final ScanKernel kernel;
+
+    LineStatsScanKernel(ScanKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        kernel.scan(buffer, state, metrics);
+
+        if (!Metrics.has(metrics, Metrics.LINE_STATS) || !buffer.hasRemaining()) {
+            return;
+        }
+
+        if (state.lineStats == null) {
+            state.lineStats = new LineStatsState();
+        }
+
+        measure(buffer, state.lineStats);
+    }
+
+    private static void measure(ByteBuffer buffer, LineStatsState lines) {
+        int i = buffer.position(), to = buffer.limit(), lineStart = i;
+
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long x = (long) LONG_LITTLE_ENDIAN.get(buffer, i) ^ NEWLINES;
+            long newlines = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+
+            while (newlines != 0) {
+                int at = i + (Long.numberOfTrailingZeros(newlines) >>> 3);
+
+                lines.lineBreak(at - lineStart);
+                lineStart = at + 1;
+                newlines &= newlines - 1;
+            }
+        }
+
+        for (; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                lines.lineBreak(i - lineStart);
+                lineStart = i + 1;
+            }
+        }
+
+        lines.advance(to - lineStart);
+    }
+}
@@ -0,0 +1,73 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * The line lengths of one range of bytes, the complete lines in a LineLengthSketch and the two partial ones
+ * at its ends kept apart: the bytes before the first newline, which may continue a line of the previous range,
+ * and the ones after the last newline, which the next range may continue. A range without any newline
+ * is a piece of a single line. Appending two ranges completes the line across their boundary, so
+ * the ranges can be counted apart and merged in order with the same lines as a single pass.
+ */
+
+final class LineStatsState {
+    private final LineLengthSketch sketch = new LineLengthSketch();
+
+    private boolean broken;
+    private long head;
+    private long open;
+
+    LineStatsState() {}
+
+    /**
+     * The newline ending the line open since the last one, or since the start of the range.
+     *
+     * @param length The bytes of the line before the newline, since the last newline of the range.
+     */
+    void lineBreak(long length) {
+        if (!broken) {
+            head = open + length;
+            broken = true;
+        } else {
+            sketch.add(open + length);
+        }
+
+        open = 0;
+    }
+
+    /**
+     * @param length The bytes at the end of the scanned buffer, after its last newline.
+     */
+    void advance(long length) {
+        open += length;
+    }
+
+    /**
+     * Appends the range counted in the next state right after the range of this one.
+     */
+    void append(LineStatsState next) {
+        if (next.broken) {
+            lineBreak(next.head);
+            sketch.addAll(next.sketch);
+        }
+
+        open += next.open;
+    }
+
+    /**
+     * Closes the range as the whole input, its first line being complete and its last one too, if not empty.
+     *
+     * @return The sketch of all the lines of the input.
+     */
+    LineLengthSketch toSketch() {
+        LineLengthSketch lines = LineLengthSketch.union(new LineLengthSketch(), sketch);
+
+        if (broken) {
+            lines.add(head);
+        }
+
+        if (open > 0) {
+            lines.add(open);
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,27 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/***
+ * What the char counter does with a malformed UTF-8 sequence, mirroring the actions of a CharsetDecoder.
+ * With REPLACE a malformed sequence counts as one char, like the U+FFFD the decoder would put in its place,
+ * with IGNORE it is not counted at all, and with REPORT the input is rejected with an error.
+ * A malformed sequence is the longest prefix of a valid sequence that could not be completed,
+ * or a single byte that cannot start a sequence, the same way the JDK decoder splits them.
+ */
+
+public enum MalformedInputPolicy {
+    REPLACE,
+    IGNORE,
+    REPORT;
+
+    public static MalformedInputPolicy fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("invalid malformed input policy '%s', expected one of %s",
+                    name, Arrays.toString(values()).toLowerCase(Locale.ROOT)));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.io.IOException;
+
+/***
+ * Thrown when the chars are counted with the REPORT policy and the input is not well-formed in its encoding,
+ * UTF-8 or UTF-16.
+ */
+
+public class MalformedTextException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public MalformedTextException(long malformedSequences) {
+        super(String.format("The input is not valid in its encoding, found %d malformed sequence(s)", malformedSequences));
+    }
+}
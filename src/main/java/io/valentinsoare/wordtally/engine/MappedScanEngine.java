@@ -0,0 +1,85 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.LongStream;
+
+/***
+ * Here we count one large file on all the available cores.
+ * The file is split into regions and each region is mapped in memory with its own MappedByteBuffer,
+ * so a file bigger than 2 GB is simply mapped as several segments. The regions are counted independently
+ * with a parallel stream and the partial ScanStates are merged in the order of the regions, where the merge
+ * takes care of the words and UTF-8 sequences cut in two by the boundary between two regions.
+ */
+
+@Component
+public class MappedScanEngine {
+    public static final long PARALLEL_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final long MIN_REGION_SIZE = 16L * 1024 * 1024;
+    private static final long MAX_REGION_SIZE = 1024L * 1024 * 1024;
+    private static final long PAGE_SIZE = 4096;
+    private static final int HEAD_SIZE = 4;
+
+    public MappedScanEngine() {}
+
+    /**
+     * Counts the file by regions in parallel and merges the partial results.
+     *
+     * @param inputFile The file to be counted.
+     * @param settings  The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters for the file.
+     * @throws IOException If the file cannot be opened, mapped or read, or it is malformed and the policy is REPORT.
+     */
+    public CountResult scan(Path inputFile, ScanSettings settings) throws IOException {
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long regionSize = regionSizeFor(size);
+            long numberOfRegions = (size + regionSize - 1) / regionSize;
+
+            ScanState first = new ScanState();
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEAD_SIZE));
+            ScanKernel kernel = ScanKernels.forInput(settings, head, first);
+            int skipped = head.position();
+
+            return LongStream.range(0, numberOfRegions)
+                    .parallel()
+                    .mapToObj(r -> countRegion(channel, kernel, r * regionSize, Math.min(regionSize, size - r * regionSize),
+                            r == 0 ? first : new ScanState(), r == 0 ? skipped : 0, settings.metrics()))
+                    .collect(ScanState::new, ScanState::append, ScanState::append)
+                    .toResult(settings);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The regions are a whole number of pages, so they start on an even offset, which UTF-16 needs.
+     */
+    private long regionSizeFor(long size) {
+        long perCore = size / (Runtime.getRuntime().availableProcessors() * 4L);
+        long regionSize = Math.min(MAX_REGION_SIZE, Math.max(MIN_REGION_SIZE, perCore));
+
+        return regionSize - regionSize % PAGE_SIZE;
+    }
+
+    private ScanState countRegion(FileChannel channel, ScanKernel kernel, long position, long length,
+                                  ScanState state, int skipped, int metrics) {
+        try {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            region.position(skipped);
+            kernel.scan(region, state, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return state;
+    }
+}
@@ -0,0 +1,59 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.util.Collection;
+
+/***
+ * The counters that can be requested from the app, each one represented as a single bit.
+ * Instead of carrying a list of option names around, the options from the command line are folded
+ * into one int mask and the scan engine checks the bits it needs while it walks the input only once.
+ */
+
+public final class Metrics {
+    public static final int LINES = 1;
+    public static final int WORDS = 1 << 1;
+    public static final int CHARS = 1 << 2;
+    public static final int BYTES = 1 << 3;
+    public static final int MAX_LINE_LENGTH = 1 << 4;
+    public static final int DISTINCT_WORDS = 1 << 5;
+    public static final int PATTERNS = 1 << 6;
+    public static final int ENTROPY = 1 << 7;
+    public static final int HISTOGRAM = 1 << 8;
+    public static final int LINE_STATS = 1 << 9;
+
+    public static final int DEFAULT = LINES | WORDS | BYTES;
+
+    private Metrics() {}
+
+    /**
+     * Builds the mask from the long names of the options given by the user.
+     * When none of the counting options is present, the wc defaults (lines, words and bytes) are used.
+     *
+     * @param optionNames The long names of the options from the command line.
+     * @return The mask with the bits of the requested counters.
+     */
+    public static int fromOptionNames(Collection<String> optionNames) {
+        int metrics = 0;
+
+        for (String o : optionNames) {
+            switch (o) {
+                case "lines" -> metrics |= LINES;
+                case "words" -> metrics |= WORDS;
+                case "chars" -> metrics |= CHARS;
+                case "bytes" -> metrics |= BYTES;
+                case "max-line-length" -> metrics |= MAX_LINE_LENGTH;
+                case "distinct-words" -> metrics |= DISTINCT_WORDS;
+                case "count-pattern", "patterns-file" -> metrics |= PATTERNS;
+                case "entropy" -> metrics |= ENTROPY;
+                case "histogram" -> metrics |= HISTOGRAM;
+                case "line-stats" -> metrics |= LINE_STATS;
+                default -> {}
+            }
+        }
+
+        return metrics == 0 ? DEFAULT : metrics;
+    }
+
+    public static boolean has(int metrics, int metric) {
+        return (metrics & metric) != 0;
+    }
+}
@@ -0,0 +1,121 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * The n-grams cut by the ends of a range, which cannot be counted until the neighbouring ranges are known.
+ * Next to the head and the tail fragments, as in TokenFragments, it keeps the first and the last n - 1 complete
+ * tokens of the range: an n-gram across a boundary has at most n - 1 tokens on either side of it, so these
+ * are all it takes to finish every one of them when two ranges are appended. The tokens in the middle
+ * of a range are never looked at again, the fragments stay a few tokens long however long the range is.
+ */
+
+final class NgramFragments implements RangeFragments<NgramFragments> {
+    private final int n;
+
+    private byte[] head;
+    private int headLength;
+    private List<byte[]> first;
+    private List<byte[]> last;
+    private long count;
+    private byte[] tail;
+    private int tailLength;
+    private boolean whole;
+
+    NgramFragments(int n, byte[] head, List<byte[]> first, List<byte[]> last, long count, byte[] tail, boolean whole) {
+        this.n = n;
+        this.head = head;
+        this.headLength = head.length;
+        this.first = first;
+        this.last = last;
+        this.count = count;
+        this.tail = tail;
+        this.tailLength = tail.length;
+        this.whole = whole;
+    }
+
+    /**
+     * @return The fragments of a range without any whitespace, a piece of a single token.
+     */
+    static NgramFragments whole(int n, byte[] bytes) {
+        return new NgramFragments(n, bytes, List.of(), List.of(), 0, TokenFragments.NONE, true);
+    }
+
+    /**
+     * @return The fragments of a range holding only whitespace, which ends any token next to it.
+     */
+    private static NgramFragments blank(int n) {
+        return new NgramFragments(n, TokenFragments.NONE, List.of(), List.of(), 0, TokenFragments.NONE, false);
+    }
+
+    /**
+     * The pieces of a token cut into many ranges are gathered as in TokenFragments, in an array that doubles
+     * when it is full. The fragments of the next range are taken over, so they are not to be used again.
+     */
+    @Override
+    public NgramFragments append(NgramFragments next, TokenSink sink) {
+        if (whole) {
+            head = TokenFragments.put(head, headLength, next.head, next.headLength);
+            headLength += next.headLength;
+            first = next.first;
+            last = next.last;
+            count = next.count;
+            tail = next.tail;
+            tailLength = next.tailLength;
+            whole = next.whole;
+            return this;
+        }
+
+        if (next.whole) {
+            tail = TokenFragments.put(tail, tailLength, next.head, next.headLength);
+            tailLength += next.headLength;
+            return this;
+        }
+
+        List<byte[]> window = new ArrayList<>(last);
+        int middleLength = tailLength + next.headLength;
+        byte[] pieces = TokenFragments.put(tail, tailLength, next.head, next.headLength);
+        byte[] middle = pieces.length == middleLength ? pieces : Arrays.copyOf(pieces, middleLength);
+
+        if (middle.length > 0) {
+            window.add(middle);
+        }
+
+        int lastAndMiddle = window.size();
+        window.addAll(next.first);
+
+        for (int from = 0; from + n <= window.size(); from++) {
+            NgramTokenizer.addTo(sink, window, from, n);
+        }
+
+        if (count < n - 1) {
+            List<byte[]> joined = new ArrayList<>(first);
+            joined.addAll(window.subList(last.size(), window.size()));
+            first = List.copyOf(joined.subList(0, Math.min(n - 1, joined.size())));
+        }
+
+        if (next.count < n - 1) {
+            List<byte[]> joined = new ArrayList<>(window.subList(0, lastAndMiddle));
+            joined.addAll(next.last);
+            last = List.copyOf(joined.subList(Math.max(0, joined.size() - (n - 1)), joined.size()));
+        } else {
+            last = next.last;
+        }
+
+        count += next.count + (middle.length > 0 ? 1 : 0);
+        tail = next.tail;
+        tailLength = next.tailLength;
+
+        return this;
+    }
+
+    /**
+     * Closes the range as a whole input, its head and tail being complete tokens, as if it had whitespace around it.
+     */
+    @Override
+    public void flush(TokenSink sink) {
+        blank(n).append(this, sink).append(blank(n), sink);
+    }
+}
@@ -0,0 +1,204 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Splits a range of bytes into the n-grams of its tokens, every run of n tokens in a row, the same tokens
+ * the Tokenizer finds. An n-gram is keyed by its tokens joined with a single space, so the same words make
+ * the same n-gram whatever whitespace is between them. The hash of an n-gram is a rolling polynomial over
+ * the hashes of its tokens, each token being hashed once, while it is walked, and the key is assembled
+ * in a reused byte array only to be handed to the sink, so no String and no array per n-gram is ever made.
+ * The n-grams reaching past the ends of the range come back as NgramFragments, to be finished by the neighbours.
+ */
+
+final class NgramTokenizer {
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private final int n;
+    private final long highestPower;
+    private final TokenSink sink;
+
+    private final int[] starts;
+    private final int[] lengths;
+    private final long[] hashes;
+    private byte[] key = new byte[256];
+    private ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+
+    private NgramTokenizer(int n, TokenSink sink) {
+        long power = 1;
+
+        for (int i = 1; i < n; i++) {
+            power *= PRIME;
+        }
+
+        this.n = n;
+        this.highestPower = power;
+        this.sink = sink;
+        this.starts = new int[n];
+        this.lengths = new int[n];
+        this.hashes = new long[n];
+    }
+
+    /**
+     * @param buffer The bytes between its position and its limit, the buffer is not moved.
+     * @param sink   The sink receiving the n-grams found entirely inside the range.
+     * @param n      The number of tokens of an n-gram.
+     * @return The fragments at both ends of the range.
+     */
+    static NgramFragments tokenize(ByteBuffer buffer, TokenSink sink, int n) {
+        return new NgramTokenizer(n, sink).tokenize(buffer);
+    }
+
+    /**
+     * The hash of the n-gram made of the given tokens, the same the rolling hash gives while walking them.
+     */
+    static long hashOf(List<byte[]> tokens, int from, int n) {
+        long hash = 0;
+
+        for (int i = from; i < from + n; i++) {
+            hash = hash * PRIME + TokenHash.of(tokens.get(i));
+        }
+
+        return TokenHash.finish(hash);
+    }
+
+    /**
+     * Hands the n-gram made of the given tokens to the sink, for the few n-grams assembled at the boundaries.
+     */
+    static void addTo(TokenSink sink, List<byte[]> tokens, int from, int n) {
+        int length = n - 1;
+
+        for (int i = from; i < from + n; i++) {
+            length += tokens.get(i).length;
+        }
+
+        byte[] joined = new byte[length];
+        int at = 0;
+
+        for (int i = from; i < from + n; i++) {
+            if (i > from) {
+                joined[at++] = ' ';
+            }
+
+            byte[] token = tokens.get(i);
+            System.arraycopy(token, 0, joined, at, token.length);
+            at += token.length;
+        }
+
+        sink.add(ByteBuffer.wrap(joined), 0, length, hashOf(tokens, from, n));
+    }
+
+    private NgramFragments tokenize(ByteBuffer buffer) {
+        int from = buffer.position(), to = buffer.limit();
+        int i = from;
+
+        while (i < to && !ScalarScanKernel.isWhitespace(buffer.get(i))) {
+            i++;
+        }
+
+        if (i == to) {
+            return NgramFragments.whole(n, copy(buffer, from, to));
+        }
+
+        byte[] head = copy(buffer, from, i);
+        List<byte[]> first = new ArrayList<>();
+        long count = 0, rolling = 0, hash = 0;
+        int start = -1;
+
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+
+            if (ScalarScanKernel.isWhitespace(b)) {
+                if (start >= 0) {
+                    rolling = addToken(buffer, start, i - start, TokenHash.finish(hash), count++, rolling);
+
+                    if (count < n) {
+                        first.add(copy(buffer, start, i));
+                    }
+
+                    start = -1;
+                }
+            } else {
+                if (start < 0) {
+                    start = i;
+                    hash = TokenHash.EMPTY;
+                }
+
+                hash = TokenHash.next(hash, b);
+            }
+        }
+
+        List<byte[]> last = new ArrayList<>();
+
+        for (long t = Math.max(0, count - (n - 1)); t < count; t++) {
+            int slot = (int) (t % n);
+            last.add(copy(buffer, starts[slot], starts[slot] + lengths[slot]));
+        }
+
+        return new NgramFragments(n, head, first, last, count,
+                start >= 0 ? copy(buffer, start, to) : TokenFragments.NONE, false);
+    }
+
+    /**
+     * Puts the token in the ring and hands over the n-gram it ends, if there are n tokens already.
+     *
+     * @param rolling The hash of the n - 1 tokens before this one, or of all of them when there are fewer.
+     * @return The hash of the n - 1 tokens ending with this one.
+     */
+    private long addToken(ByteBuffer buffer, int start, int length, long tokenHash, long index, long rolling) {
+        int slot = (int) (index % n);
+
+        starts[slot] = start;
+        lengths[slot] = length;
+        hashes[slot] = tokenHash;
+
+        long full = rolling * PRIME + tokenHash;
+
+        if (index < n - 1) {
+            return full;
+        }
+
+        addNgram(buffer, index + 1, TokenHash.finish(full));
+        return full - hashes[(int) ((index + 1) % n)] * highestPower;
+    }
+
+    /**
+     * Assembles the key of the n-gram ending with the given token, the ring holding its n tokens.
+     */
+    private void addNgram(ByteBuffer buffer, long end, long hash) {
+        int length = n - 1;
+
+        for (int t = 0; t < n; t++) {
+            length += lengths[t];
+        }
+
+        if (length > key.length) {
+            key = new byte[Math.max(length, key.length * 2)];
+            keyBuffer = ByteBuffer.wrap(key);
+        }
+
+        int at = 0;
+
+        for (long t = end - n; t < end; t++) {
+            int slot = (int) (t % n);
+
+            if (at > 0) {
+                key[at++] = ' ';
+            }
+
+            buffer.get(starts[slot], key, at, lengths[slot]);
+            at += lengths[slot];
+        }
+
+        sink.add(keyBuffer, 0, length, hash);
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+
+        return bytes;
+    }
+}
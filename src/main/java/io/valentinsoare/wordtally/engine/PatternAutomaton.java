@@ -0,0 +1,240 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/***
+ * An Aho-Corasick automaton over the bytes of a set of fixed patterns, counting the occurrences of all of them
+ * in one pass over the input, however many patterns there are. The trie of the patterns is compiled into
+ * a complete DFA, the failure links being folded into the transitions, so every byte costs one array lookup.
+ * The bytes not found in any pattern share one class and the others get a class each, so a row of the table
+ * has as many entries as the distinct bytes of the patterns, not 256, and the whole automaton is a few flat
+ * int arrays. The occurrences are counted overlapping, "aa" is found twice in "aaa", and a pattern given
+ * more than once is matched once and reported in every column it was given for.
+ * The automaton is immutable and shared by all the threads, the counts are kept apart in a PatternState.
+ */
+
+public final class PatternAutomaton {
+    private static final int ROOT = 0;
+    private static final int NO_MATCH = -1;
+
+    private final int[] columnPatterns;
+    private final int numberOfPatterns;
+    private final int maxLength;
+
+    private final int[] classOf = new int[256];
+    private final int numberOfClasses;
+    private final int[] transitions;
+    private final int[] depths;
+    private final int[] patternOf;
+    private final int[] firstMatch;
+    private final int[] nextMatch;
+
+    private PatternAutomaton(List<byte[]> patterns) {
+        Map<ByteBuffer, Integer> distinct = new HashMap<>();
+        List<byte[]> unique = new ArrayList<>();
+        int totalLength = 0, longest = 0, classes = 1;
+
+        this.columnPatterns = new int[patterns.size()];
+
+        for (int p = 0; p < patterns.size(); p++) {
+            byte[] pattern = patterns.get(p);
+            Integer known = distinct.putIfAbsent(ByteBuffer.wrap(pattern), unique.size());
+
+            if (known == null) {
+                unique.add(pattern);
+                totalLength += pattern.length;
+                longest = Math.max(longest, pattern.length);
+            }
+
+            columnPatterns[p] = known == null ? unique.size() - 1 : known;
+        }
+
+        for (byte[] pattern : unique) {
+            for (byte b : pattern) {
+                if (classOf[b & 0xFF] == 0) {
+                    classOf[b & 0xFF] = classes++;
+                }
+            }
+        }
+
+        this.numberOfPatterns = unique.size();
+        this.maxLength = longest;
+        this.numberOfClasses = classes;
+        this.transitions = new int[(totalLength + 1) * classes];
+        this.depths = new int[totalLength + 1];
+        this.patternOf = new int[totalLength + 1];
+        this.firstMatch = new int[totalLength + 1];
+        this.nextMatch = new int[totalLength + 1];
+
+        Arrays.fill(transitions, NO_MATCH);
+        Arrays.fill(patternOf, NO_MATCH);
+
+        int states = buildTrie(unique);
+        linkFailures(states);
+    }
+
+    /**
+     * @param patterns The patterns as bytes, none of them empty.
+     * @return The automaton counting all of them, one column per pattern in the given order.
+     */
+    public static PatternAutomaton compile(List<byte[]> patterns) {
+        for (byte[] p : patterns) {
+            if (p.length == 0) {
+                throw new IllegalArgumentException("A pattern cannot be empty");
+            }
+        }
+
+        return new PatternAutomaton(patterns);
+    }
+
+    public int numberOfColumns() {
+        return columnPatterns.length;
+    }
+
+    int numberOfPatterns() {
+        return numberOfPatterns;
+    }
+
+    int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Runs the automaton over a range of the buffer, adding the occurrences ending in the range to the counts.
+     *
+     * @param buffer The bytes to be scanned, the buffer is not moved.
+     * @param from   The index of the first byte.
+     * @param to     The index after the last byte.
+     * @param state  The state the automaton is in before the range.
+     * @param counts The counts of the patterns, one per distinct pattern.
+     * @return The state the automaton is in after the range.
+     */
+    int count(ByteBuffer buffer, int from, int to, int state, long[] counts) {
+        for (int i = from; i < to; i++) {
+            state = transitions[state * numberOfClasses + classOf[buffer.get(i) & 0xFF]];
+
+            for (int m = firstMatch[state]; m != NO_MATCH; m = nextMatch[m]) {
+                counts[patternOf[m]]++;
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Counts only the occurrences starting in the tail of a range and ending in the head of the next one,
+     * the ones the two ranges could not see on their own.
+     */
+    void countAcross(byte[] tail, byte[] head, long[] counts) {
+        int state = ROOT;
+
+        for (byte b : tail) {
+            state = transitions[state * numberOfClasses + classOf[b & 0xFF]];
+        }
+
+        for (int i = 0; i < head.length; i++) {
+            state = transitions[state * numberOfClasses + classOf[head[i] & 0xFF]];
+
+            for (int m = firstMatch[state]; m != NO_MATCH; m = nextMatch[m]) {
+                if (depths[m] > i + 1) {
+                    counts[patternOf[m]]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The state the automaton is in after the given bytes, from the root.
+     */
+    int run(byte[] bytes) {
+        int state = ROOT;
+
+        for (byte b : bytes) {
+            state = transitions[state * numberOfClasses + classOf[b & 0xFF]];
+        }
+
+        return state;
+    }
+
+    /**
+     * @param counts The counts of the distinct patterns.
+     * @return The counts of the patterns in the order they were given, duplicates included.
+     */
+    long[] columns(long[] counts) {
+        long[] columns = new long[columnPatterns.length];
+
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = counts == null ? 0 : counts[columnPatterns[c]];
+        }
+
+        return columns;
+    }
+
+    private int buildTrie(List<byte[]> patterns) {
+        int states = 1;
+
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = ROOT;
+
+            for (byte b : patterns.get(p)) {
+                int edge = state * numberOfClasses + classOf[b & 0xFF];
+
+                if (transitions[edge] == NO_MATCH) {
+                    depths[states] = depths[state] + 1;
+                    transitions[edge] = states++;
+                }
+
+                state = transitions[edge];
+            }
+
+            patternOf[state] = p;
+        }
+
+        return states;
+    }
+
+    /**
+     * Walks the trie breadth first, every state getting its failure link from its parent's one,
+     * and fills the missing transitions with the ones of the failure state, which is already complete.
+     */
+    private void linkFailures(int states) {
+        int[] failures = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+
+        firstMatch[ROOT] = NO_MATCH;
+        nextMatch[ROOT] = NO_MATCH;
+
+        for (int c = 0; c < numberOfClasses; c++) {
+            int child = transitions[c];
+
+            if (child == NO_MATCH) {
+                transitions[c] = ROOT;
+            } else {
+                failures[child] = ROOT;
+                queue[tail++] = child;
+            }
+        }
+
+        while (head < tail) {
+            int state = queue[head++];
+            int failure = failures[state];
+
+            nextMatch[state] = firstMatch[failure];
+            firstMatch[state] = patternOf[state] != NO_MATCH ? state : nextMatch[state];
+
+            for (int c = 0; c < numberOfClasses; c++) {
+                int edge = state * numberOfClasses + c;
+                int fallback = transitions[failure * numberOfClasses + c];
+
+                if (transitions[edge] == NO_MATCH) {
+                    transitions[edge] = fallback;
+                } else {
+                    failures[transitions[edge]] = fallback;
+                    queue[tail++] = transitions[edge];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The kernel for the pattern counts, it wraps the kernel of the encoding and, in the same buffer, runs
+ * the Aho-Corasick automaton of the patterns into the PatternState of the ScanState, which finds
+ * the occurrences cut by the ends of the range when the ranges are merged.
+ */
+
+final class PatternScanKernel implements ScanKernel {
+    private final ScanKernel kernel;
+    private final PatternAutomaton automaton;
+
+    PatternScanKernel(ScanKernel kernel, PatternAutomaton automaton) {
+        this.kernel = kernel;
+        this.automaton = automaton;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        kernel.scan(buffer, state, metrics);
+
+        if (!Metrics.has(metrics, Metrics.PATTERNS) || !buffer.hasRemaining()) {
+            return;
+        }
+
+        if (state.patterns == null) {
+            state.patterns = new PatternState(automaton);
+        }
+
+        state.patterns.scan(buffer);
+    }
+}
@@ -0,0 +1,82 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/***
+ * The counts of the patterns for one range of bytes, with what is needed to find the occurrences across its ends.
+ * Inside a range the automaton goes on from one buffer to the next, so only the boundaries between the ranges
+ * counted apart are a problem: an occurrence across one is never longer than the longest pattern, so it is
+ * always found in the last bytes of the first range followed by the first bytes of the next one, which are
+ * kept here, as many as the longest pattern has, and scanned once more when the two ranges are appended.
+ */
+
+final class PatternState {
+    private final PatternAutomaton automaton;
+    private final long[] counts;
+
+    private byte[] head = TokenFragments.NONE;
+    private byte[] tail = TokenFragments.NONE;
+    private int state;
+
+    PatternState(PatternAutomaton automaton) {
+        this.automaton = automaton;
+        this.counts = new long[automaton.numberOfPatterns()];
+    }
+
+    /**
+     * Counts the bytes of the buffer, between its position and its limit, as the continuation of the range.
+     */
+    void scan(ByteBuffer buffer) {
+        int from = buffer.position(), to = buffer.limit();
+        int window = automaton.maxLength();
+
+        if (head.length < window) {
+            head = concat(head, buffer, from, Math.min(to, from + window - head.length));
+        }
+
+        tail = to - from >= window
+                ? concat(TokenFragments.NONE, buffer, to - window, to)
+                : lastBytes(concat(tail, buffer, from, to), window);
+        state = automaton.count(buffer, from, to, state, counts);
+    }
+
+    /**
+     * Appends the range counted in the next state right after the range of this one.
+     */
+    void append(PatternState next) {
+        int window = automaton.maxLength();
+
+        automaton.countAcross(tail, next.head, counts);
+
+        for (int p = 0; p < counts.length; p++) {
+            counts[p] += next.counts[p];
+        }
+
+        if (head.length < window) {
+            head = Arrays.copyOf(concat(head, ByteBuffer.wrap(next.head), 0, next.head.length),
+                    Math.min(window, head.length + next.head.length));
+        }
+
+        tail = lastBytes(concat(tail, ByteBuffer.wrap(next.tail), 0, next.tail.length), window);
+        state = automaton.run(tail);
+    }
+
+    /**
+     * @return The counts of the patterns in the order they were given.
+     */
+    long[] columns() {
+        return automaton.columns(counts);
+    }
+
+    private static byte[] concat(byte[] first, ByteBuffer buffer, int from, int to) {
+        byte[] joined = Arrays.copyOf(first, first.length + to - from);
+        buffer.get(from, joined, first.length, to - from);
+
+        return joined;
+    }
+
+    private static byte[] lastBytes(byte[] bytes, int count) {
+        return bytes.length <= count ? bytes : Arrays.copyOfRange(bytes, bytes.length - count, bytes.length);
+    }
+}
@@ -0,0 +1,186 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/***
+ * Here we count a stream, usually the standard input, on all the available cores while it is still being read.
+ * The calling thread only reads: it fills a buffer taken from a small pool and hands it to the workers
+ * through a bounded queue, then goes on with the next buffer. Each worker counts its chunk on its own ScanState
+ * and gives the buffer back to the pool. The partial states are appended in the order the chunks were read,
+ * so the words and UTF-8 sequences cut by a chunk boundary are glued back as if the stream was read in one go.
+ * When all the buffers are busy the reader waits, so the memory stays the same for any size of the input.
+ * The workers and the pool of buffers are shared by every scan running at the same time, the buffers being
+ * allocated only when the pool is empty and there are fewer of them than the bound, so many small inputs
+ * counted together hold no more memory than one large input. When the queue of the workers is full the chunk
+ * is counted on the reading thread, which slows that reader down instead of failing its scan.
+ * The reading loop is shared as well, the TallyEngine hands its own task to it to tally a stream,
+ * and runs its file regions on the same workers with buffers of the same pool.
+ */
+
+@Component
+public class PipelinedScanEngine {
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final int numberOfWorkers;
+    private final int numberOfBuffers;
+    private final ThreadPoolExecutor workers;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    public PipelinedScanEngine() {
+        this.numberOfWorkers = Runtime.getRuntime().availableProcessors();
+        this.numberOfBuffers = numberOfWorkers * 2 + 1;
+        this.freeBuffers = new ArrayBlockingQueue<>(numberOfBuffers);
+
+        ThreadFactory threadFactory = (r -> {
+            Thread t = new Thread(r);
+            t.setName(String.format("chunk-worker-%s", t.getId()));
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.workers = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers, 35, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(numberOfBuffers), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads the stream to its end, without closing it, and counts it chunk by chunk on the worker threads.
+     *
+     * @param inputStream The stream to be counted.
+     * @param settings    The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters for the stream.
+     * @throws IOException If the stream cannot be read, or it is malformed and the policy is REPORT.
+     */
+    public CountResult scan(InputStream inputStream, ScanSettings settings) throws IOException {
+        ScanState total = new ScanState();
+
+        readInChunks(inputStream, first -> {
+            ScanKernel kernel = ScanKernels.forInput(settings, first, total);
+            return chunk -> countChunk(kernel, chunk, settings.metrics());
+        }, total::append);
+
+        return total.toResult(settings);
+    }
+
+    /**
+     * Reads the stream to its end, without closing it, into buffers of the shared pool, has every chunk processed
+     * by a worker and hands the results over in the order the chunks were read, on the reading thread.
+     *
+     * @param inputStream The stream to be read.
+     * @param taskFor     Given the first chunk on the reading thread, the task to run on the workers for every chunk.
+     * @param inOrder     The consumer of the results of the chunks, in the order of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    <T> void readInChunks(InputStream inputStream, Function<ByteBuffer, Function<ByteBuffer, T>> taskFor,
+                          Consumer<T> inOrder) throws IOException {
+        Deque<CompletableFuture<T>> inFlight = new ArrayDeque<>();
+        Function<ByteBuffer, T> task = null;
+
+        try {
+            int readBytes = CHUNK_SIZE;
+
+            while (readBytes == CHUNK_SIZE) {
+                ByteBuffer buffer = takeBuffer();
+
+                try {
+                    readBytes = inputStream.readNBytes(buffer.array(), 0, CHUNK_SIZE);
+                } catch (IOException e) {
+                    giveBack(buffer);
+                    throw e;
+                }
+
+                if (readBytes == 0) {
+                    giveBack(buffer);
+                    break;
+                }
+
+                buffer.clear().limit(readBytes);
+
+                if (task == null) {
+                    task = taskFor.apply(buffer);
+                }
+
+                inFlight.add(submitChunk(task, buffer));
+
+                while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                    inOrder.accept(inFlight.poll().join());
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                inOrder.accept(inFlight.poll().join());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the input");
+        }
+    }
+
+    /**
+     * Takes a free buffer from the shared pool, allocating it while there are fewer buffers than the bound,
+     * or waits for one to be given back.
+     *
+     * @return A buffer of one chunk, to be given back, or submitted, by the caller.
+     */
+    ByteBuffer takeBuffer() throws InterruptedException {
+        ByteBuffer buffer = freeBuffers.poll();
+
+        if (buffer != null) {
+            return buffer;
+        }
+
+        if (allocatedBuffers.getAndUpdate(n -> n < numberOfBuffers ? n + 1 : n) < numberOfBuffers) {
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+
+        return freeBuffers.take();
+    }
+
+    void giveBack(ByteBuffer buffer) {
+        freeBuffers.add(buffer);
+    }
+
+    /**
+     * Counts the chunk on a worker, which gives the buffer back to the pool when it is done.
+     */
+    CompletableFuture<ScanState> submitChunk(ScanKernel kernel, ByteBuffer buffer, int metrics) {
+        return submitChunk(chunk -> countChunk(kernel, chunk, metrics), buffer);
+    }
+
+    /**
+     * Runs the task on the chunk on a worker, which gives the buffer back to the pool when it is done.
+     */
+    <T> CompletableFuture<T> submitChunk(Function<ByteBuffer, T> task, ByteBuffer buffer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.apply(buffer);
+            } finally {
+                giveBack(buffer);
+            }
+        }, workers);
+    }
+
+    int numberOfWorkers() {
+        return numberOfWorkers;
+    }
+
+    private static ScanState countChunk(ScanKernel kernel, ByteBuffer buffer, int metrics) {
+        ScanState state = new ScanState();
+
+        kernel.scan(buffer, state, metrics);
+
+        return state;
+    }
+}
@@ -0,0 +1,23 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * What a range of the input leaves unfinished at its ends, the entries that cannot be counted until
+ * the neighbouring ranges are known. The fragments of the ranges are appended in the order of the input,
+ * which finishes the entries across every boundary, and the fragments of a whole input are flushed at its end.
+ */
+
+interface RangeFragments<F extends RangeFragments<F>> {
+    /**
+     * @param next The fragments of the range right after this one.
+     * @param sink The sink receiving the entries finished at the boundary.
+     * @return The fragments covering both ranges.
+     */
+    F append(F next, TokenSink sink);
+
+    /**
+     * Closes the range as a whole input.
+     *
+     * @param sink The sink receiving the entries finished at its ends.
+     */
+    void flush(TokenSink sink);
+}
@@ -0,0 +1,192 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The reference kernel, it walks the bytes one by one and updates the counters of a ScanState.
+ * Lines are the newline bytes, words are the runs of bytes delimited by the whitespace bytes (the same set as \s)
+ * and chars are the UTF-8 code points, counted from the bytes without decoding them.
+ * The sequences are checked with the same rules as the JDK decoder: no C0, C1 or F5 to FF bytes,
+ * no overlong forms and nothing above U+10FFFF, which comes down to a narrower range for the byte right after
+ * the E0, F0 and F4 lead bytes. What breaks these rules is counted as malformed, sequence by sequence, where
+ * the decoder would put a U+FFFD. A surrogate (ED followed by A0 to BF) is read to its end and is malformed as a whole.
+ */
+
+public final class ScalarScanKernel implements ScanKernel {
+    static final int CONTINUATION_MIN = 0x80;
+    static final int CONTINUATION_MAX = 0xBF;
+    static final int NO_SURROGATE = 0x100;
+
+    private static final boolean[] WHITESPACE = new boolean[256];
+
+    static {
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            WHITESPACE[c] = true;
+        }
+    }
+
+    public ScalarScanKernel() {}
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        scan(buffer, buffer.position(), buffer.limit(), state, metrics);
+    }
+
+    /**
+     * Scans the bytes from the index from (inclusive) to the index to (exclusive) of the buffer.
+     *
+     * @param buffer  The bytes to be counted.
+     * @param from    The index of the first byte.
+     * @param to      The index after the last byte.
+     * @param state   The counters of the range the bytes belong to.
+     * @param metrics The mask with the requested counters.
+     */
+    void scan(ByteBuffer buffer, int from, int to, ScanState state, int metrics) {
+        if (from == to) {
+            return;
+        }
+
+        if (state.bytes == 0) {
+            state.startsInWord = !isWhitespace(buffer.get(from));
+            state.firstByte = buffer.get(from) & 0xFF;
+        }
+
+        long lines = 0, words = 0;
+        boolean inWord = state.inWord;
+
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            boolean whitespace = WHITESPACE[b & 0xFF];
+
+            lines += b == '\n' ? 1 : 0;
+            words += whitespace || inWord ? 0 : 1;
+            inWord = !whitespace;
+        }
+
+        state.lines += lines;
+        state.words += words;
+        state.inWord = inWord;
+        state.bytes += to - from;
+
+        if (Metrics.has(metrics, Metrics.CHARS)) {
+            countUtf8(buffer, from, to, state);
+        }
+    }
+
+    private void countUtf8(ByteBuffer buffer, int from, int to, ScanState state) {
+        long chars = 0, malformed = 0;
+        int pending = state.pendingContinuationBytes;
+        int lowerBound = state.nextLowerBound, upperBound = state.nextUpperBound;
+        int surrogateFrom = state.nextSurrogateFrom;
+        boolean surrogate = state.pendingSurrogate, synced = state.synchronizedOnUtf8;
+
+        for (int i = from; i < to; i++) {
+            int b = buffer.get(i) & 0xFF;
+
+            if (pending > 0) {
+                if (b >= lowerBound && b <= upperBound) {
+                    surrogate |= b >= surrogateFrom;
+                    pending -= 1;
+                    lowerBound = CONTINUATION_MIN;
+                    upperBound = CONTINUATION_MAX;
+                    surrogateFrom = NO_SURROGATE;
+
+                    if (pending == 0) {
+                        if (surrogate) {
+                            malformed += 1;
+                        } else {
+                            chars += 1;
+                        }
+
+                        surrogate = false;
+                    }
+
+                    continue;
+                }
+
+                malformed += 1;
+                pending = 0;
+                lowerBound = CONTINUATION_MIN;
+                upperBound = CONTINUATION_MAX;
+                surrogateFrom = NO_SURROGATE;
+                surrogate = false;
+            }
+
+            if (b < 0x80) {
+                chars += 1;
+                synced = true;
+            } else if (b <= CONTINUATION_MAX) {
+                if (synced) {
+                    malformed += 1;
+                } else {
+                    state.leadingContinuationBytes += 1;
+                }
+            } else {
+                synced = true;
+                pending = continuationBytesAfter(b);
+
+                if (pending == 0) {
+                    malformed += 1;
+                } else {
+                    lowerBound = lowerBoundAfter(b);
+                    upperBound = upperBoundAfter(b);
+                    surrogateFrom = surrogateFromAfter(b);
+                }
+            }
+        }
+
+        state.chars += chars;
+        state.malformed += malformed;
+        state.pendingContinuationBytes = pending;
+        state.nextLowerBound = lowerBound;
+        state.nextUpperBound = upperBound;
+        state.nextSurrogateFrom = surrogateFrom;
+        state.pendingSurrogate = surrogate;
+        state.synchronizedOnUtf8 = synced;
+    }
+
+    /**
+     * @param lead A byte from 0xC0 up.
+     * @return How many continuation bytes the lead byte asks for, 0 when it cannot start a sequence.
+     */
+    static int continuationBytesAfter(int lead) {
+        if (lead < 0xC2 || lead > 0xF4) {
+            return 0;
+        }
+
+        return lead >= 0xF0 ? 3 : (lead >= 0xE0 ? 2 : 1);
+    }
+
+    /**
+     * The smallest byte allowed right after a lead byte, higher than 0x80 where a smaller one would give an overlong form.
+     */
+    static int lowerBoundAfter(int lead) {
+        return switch (lead) {
+            case 0xE0 -> 0xA0;
+            case 0xF0 -> 0x90;
+            default -> CONTINUATION_MIN;
+        };
+    }
+
+    /**
+     * The largest byte allowed right after a lead byte, lower than 0xBF where a larger one would give
+     * a code point above U+10FFFF.
+     */
+    static int upperBoundAfter(int lead) {
+        return lead == 0xF4 ? 0x8F : CONTINUATION_MAX;
+    }
+
+    /**
+     * The smallest byte right after a lead byte that makes the sequence a surrogate, NO_SURROGATE when it cannot be one.
+     */
+    static int surrogateFromAfter(int lead) {
+        return lead == 0xED ? 0xA0 : NO_SURROGATE;
+    }
+
+    /**
+     * Looks the byte up in a table of the whitespace bytes, a word is any run of bytes between them.
+     */
+    static boolean isWhitespace(byte b) {
+        return WHITESPACE[b & 0xFF];
+    }
+}
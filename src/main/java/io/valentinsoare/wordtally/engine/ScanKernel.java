@@ -0,0 +1,13 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The contract of the counting kernels: scan the bytes between the position and the limit of a buffer
+ * and update the counters of the ScanState the bytes belong to. The buffer itself is not moved.
+ * All the kernels must leave the state exactly as the scalar one does, so they can be swapped freely.
+ */
+
+public interface ScanKernel {
+    void scan(ByteBuffer buffer, ScanState state, int metrics);
+}
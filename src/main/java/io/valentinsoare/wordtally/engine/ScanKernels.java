@@ -0,0 +1,103 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * Here the kernel used by the engines is picked once, when the class is loaded.
+ * The Vector API kernel is used when the jdk.incubator.vector module is resolved in the running JVM,
+ * and it is loaded by name, so the JVMs without the module never touch its classes.
+ * In any other case, the GraalVM native images included, when the vectors of the CPU are shorter than 16 bytes,
+ * or if the vector kernel cannot be created, the SWAR kernel is used, which needs nothing more than plain long arithmetic.
+ * The other encodings have their own kernels, picked from the first bytes of the input.
+ * When the max line length, the distinct words, the patterns, the byte histogram or the line stats are requested,
+ * the kernel is wrapped in the ones computing them.
+ */
+
+public final class ScanKernels {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "io.valentinsoare.wordtally.engine.VectorScanKernel";
+    private static final String NATIVE_IMAGE_PROPERTY = "org.graalvm.nativeimage.imagecode";
+
+    private static final ScanKernel PREFERRED = pickPreferred();
+    private static final ScanKernel SINGLE_BYTE = new SingleByteScanKernel(PREFERRED);
+    private static final ScanKernel UTF_16BE = new Utf16ScanKernel(ByteOrder.BIG_ENDIAN);
+    private static final ScanKernel UTF_16LE = new Utf16ScanKernel(ByteOrder.LITTLE_ENDIAN);
+
+    private ScanKernels() {}
+
+    public static ScanKernel preferred() {
+        return PREFERRED;
+    }
+
+    /**
+     * @param encoding The encoding of the input, UTF-16 without a byte order being taken as big-endian.
+     * @return The kernel counting that encoding.
+     */
+    public static ScanKernel forEncoding(TextEncoding encoding) {
+        return switch (encoding) {
+            case UTF_8 -> PREFERRED;
+            case UTF_16, UTF_16BE -> UTF_16BE;
+            case UTF_16LE -> UTF_16LE;
+            case SINGLE_BYTE -> SINGLE_BYTE;
+        };
+    }
+
+    /**
+     * Picks the kernel for an input from its first bytes, and moves the head past the byte order mark, if any,
+     * which is counted in the state only as bytes.
+     *
+     * @param settings The requested counters and the encoding of the input as given by the user.
+     * @param head     The first bytes of the input, from its position.
+     * @param state    The state of the range starting with the head.
+     * @return The kernel for the rest of the input.
+     */
+    public static ScanKernel forInput(ScanSettings settings, ByteBuffer head, ScanState state) {
+        int byteOrderMarkLength = settings.encoding().byteOrderMarkLength(head);
+        TextEncoding encoding = settings.encoding().resolve(head);
+        ScanKernel kernel = forEncoding(encoding);
+
+        head.position(head.position() + byteOrderMarkLength);
+        state.bytes += byteOrderMarkLength;
+
+        if (Metrics.has(settings.metrics(), Metrics.MAX_LINE_LENGTH)) {
+            kernel = new LineLengthScanKernel(kernel, encoding);
+        }
+
+        if (Metrics.has(settings.metrics(), Metrics.DISTINCT_WORDS)) {
+            kernel = new DistinctWordsScanKernel(kernel);
+        }
+
+        if (Metrics.has(settings.metrics(), Metrics.PATTERNS)) {
+            kernel = new PatternScanKernel(kernel, settings.patterns());
+        }
+
+        if (Metrics.has(settings.metrics(), Metrics.HISTOGRAM | Metrics.ENTROPY)) {
+            kernel = new HistogramScanKernel(kernel);
+        }
+
+        if (Metrics.has(settings.metrics(), Metrics.LINE_STATS)) {
+            kernel = new LineStatsScanKernel(kernel);
+        }
+
+        return kernel;
+    }
+
+    private static ScanKernel pickPreferred() {
+        boolean isNativeImage = System.getProperty(NATIVE_IMAGE_PROPERTY) != null;
+
+        if (!isNativeImage && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                Class<?> vectorKernel = Class.forName(VECTOR_KERNEL);
+
+                if ((boolean) vectorKernel.getDeclaredMethod("isWorthIt").invoke(null)) {
+                    return (ScanKernel) vectorKernel.getDeclaredConstructor().newInstance();
+                }
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new SwarScanKernel();
+            }
+        }
+
+        return new SwarScanKernel();
+    }
+}
@@ -0,0 +1,33 @@
+package io.valentinsoare.wordtally.engine;
+
+import lombok.Builder;
+
+/***
+ * Everything the engines need to know about one count, besides the input itself:
+ * the mask with the requested counters, the encoding of the input and what to do with the malformed sequences
+ * when the chars are counted, plus the automaton of the patterns to be counted, if any.
+ * It is built once from the command line and shared by all the files.
+ */
+
+@Builder(toBuilder = true)
+public record ScanSettings(int metrics, MalformedInputPolicy malformedInputPolicy, TextEncoding encoding,
+                           PatternAutomaton patterns) {
+
+    public ScanSettings {
+        if (malformedInputPolicy == null) {
+            malformedInputPolicy = MalformedInputPolicy.REPLACE;
+        }
+
+        if (encoding == null) {
+            encoding = TextEncoding.UTF_8;
+        }
+    }
+
+    /**
+     * @param metrics The mask with the requested counters.
+     * @return The settings for these counters on UTF-8, with the malformed sequences replaced as the decoder does.
+     */
+    public static ScanSettings of(int metrics) {
+        return ScanSettings.builder().metrics(metrics).build();
+    }
+}
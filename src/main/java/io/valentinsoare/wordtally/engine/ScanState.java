@@ -0,0 +1,220 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * The running counters for one contiguous range of bytes, updated in place by the kernels while they scan.
+ * Besides the plain counters, the state keeps what is needed to glue two neighbouring ranges back together:
+ * whether the range starts and ends inside a word, the continuation bytes found at its head before
+ * any UTF-8 lead byte, and how many continuation bytes the last multibyte sequence is still waiting for.
+ * The chars are only the well-formed code points, the malformed sequences are kept apart, so the policy
+ * for them is applied once, when the whole input is turned into a result.
+ * For UTF-16 the same fields hold the low surrogates at the head and the high surrogate left open at the end,
+ * plus a byte left over when a range ends in the middle of a unit.
+ * When the max line length is requested, its own state for the partial lines at both ends rides along,
+ * for the distinct words a HyperLogLog sketch with the words cut by both ends of the range,
+ * for the patterns their counts with the bytes at both ends, to find the occurrences across them,
+ * for the byte histogram its 256 buckets, which are simply summed, and for the line stats a sketch
+ * of the lengths of the complete lines, with the partial lines at both ends.
+ * This way a file can be split into regions that are counted independently, and then merged in order
+ * with the same result as if it had been read from the beginning to the end in one go.
+ */
+
+public final class ScanState {
+    long lines;
+    long words;
+    long chars;
+    long bytes;
+    long malformed;
+
+    boolean inWord;
+    boolean startsInWord;
+
+    boolean synchronizedOnUtf8;
+    long leadingContinuationBytes;
+    int pendingContinuationBytes;
+    int nextLowerBound = ScalarScanKernel.CONTINUATION_MIN;
+    int nextUpperBound = ScalarScanKernel.CONTINUATION_MAX;
+    int nextSurrogateFrom = ScalarScanKernel.NO_SURROGATE;
+    boolean pendingSurrogate;
+    int pendingHalfUnit = -1;
+    int firstByte;
+
+    LineLengthState lineLength;
+    HyperLogLog vocabulary;
+    HashFragments wordFragments;
+    PatternState patterns;
+    long[] byteHistogram;
+    LineStatsState lineStats;
+
+    public ScanState() {}
+
+    /**
+     * Appends the range counted in the next state right after the range of this one.
+     * Words split by the boundary are counted once, and the continuation bytes at the head of the next range
+     * complete the multibyte sequence left open at the end of this range; the extra ones are malformed.
+     *
+     * @param next The state of the range that follows this one.
+     * @return This state, now covering both ranges.
+     */
+    public ScanState append(ScanState next) {
+        if (next.bytes == 0) {
+            return this;
+        }
+
+        if (lineLength == null) {
+            lineLength = next.lineLength;
+        } else if (next.lineLength != null) {
+            lineLength.append(next.lineLength);
+        }
+
+        if (vocabulary == null) {
+            vocabulary = next.vocabulary;
+            wordFragments = next.wordFragments;
+        } else if (next.vocabulary != null) {
+            wordFragments.append(next.wordFragments, vocabulary);
+            vocabulary.addAll(next.vocabulary);
+        }
+
+        if (patterns == null) {
+            patterns = next.patterns;
+        } else if (next.patterns != null) {
+            patterns.append(next.patterns);
+        }
+
+        if (byteHistogram == null) {
+            byteHistogram = next.byteHistogram;
+        } else if (next.byteHistogram != null) {
+            for (int b = 0; b < byteHistogram.length; b++) {
+                byteHistogram[b] += next.byteHistogram[b];
+            }
+        }
+
+        if (lineStats == null) {
+            lineStats = next.lineStats;
+        } else if (next.lineStats != null) {
+            lineStats.append(next.lineStats);
+        }
+
+        if (bytes == 0) {
+            copyFrom(next);
+            return this;
+        }
+
+        if (next.bytes == 1 && next.pendingHalfUnit >= 0) {
+            bytes += 1;
+            pendingHalfUnit = next.pendingHalfUnit;
+            return this;
+        }
+
+        lines += next.lines;
+        bytes += next.bytes;
+        words += next.words - (inWord && next.startsInWord ? 1 : 0);
+        chars += next.chars;
+        inWord = next.inWord;
+
+        if (!synchronizedOnUtf8) {
+            malformed += next.malformed;
+            leadingContinuationBytes += next.leadingContinuationBytes;
+            synchronizedOnUtf8 = next.synchronizedOnUtf8;
+            copyOpenSequenceFrom(next);
+            return this;
+        }
+
+        boolean continuesSequence = pendingContinuationBytes > 0 && next.leadingContinuationBytes > 0
+                && next.firstByte >= nextLowerBound && next.firstByte <= nextUpperBound;
+        long attached = continuesSequence ? Math.min(pendingContinuationBytes, next.leadingContinuationBytes) : 0;
+        long stillPending = pendingContinuationBytes - attached;
+        boolean surrogate = pendingSurrogate || (continuesSequence && next.firstByte >= nextSurrogateFrom);
+
+        if (pendingContinuationBytes > 0 && stillPending == 0) {
+            if (surrogate) {
+                malformed += 1;
+            } else {
+                chars += 1;
+            }
+        } else if (pendingContinuationBytes > 0 && (attached == 0 || next.synchronizedOnUtf8)) {
+            malformed += 1;
+            stillPending = 0;
+        }
+
+        malformed += next.malformed + next.leadingContinuationBytes - attached;
+
+        if (next.synchronizedOnUtf8) {
+            copyOpenSequenceFrom(next);
+        } else {
+            pendingContinuationBytes = (int) stillPending;
+            nextLowerBound = ScalarScanKernel.CONTINUATION_MIN;
+            nextUpperBound = ScalarScanKernel.CONTINUATION_MAX;
+            nextSurrogateFrom = ScalarScanKernel.NO_SURROGATE;
+            pendingSurrogate = stillPending > 0 && surrogate;
+            pendingHalfUnit = next.pendingHalfUnit;
+        }
+
+        return this;
+    }
+
+    /**
+     * Closes the range as the whole input: the continuation bytes without a lead byte at the head
+     * and a multibyte sequence cut by the end of the input are malformed as well.
+     * A byte left over from UTF-16 is malformed as well, together with a high surrogate right before it,
+     * and it is a word if it does not end one.
+     *
+     * @param settings The settings of the count, with what to do with the malformed sequences when the chars are counted.
+     * @return The counters of the input.
+     * @throws MalformedTextException With the REPORT policy, when there is at least one malformed sequence.
+     */
+    public CountResult toResult(ScanSettings settings) throws MalformedTextException {
+        long allMalformed = malformed + leadingContinuationBytes
+                + (pendingContinuationBytes > 0 || pendingHalfUnit >= 0 ? 1 : 0);
+        long allWords = words + (pendingHalfUnit >= 0 && !inWord ? 1 : 0);
+        long maxLineLength = lineLength == null ? 0 : lineLength.maxLineLength();
+        long[] patternCounts = patterns != null ? patterns.columns()
+                : settings.patterns() != null ? new long[settings.patterns().numberOfColumns()] : null;
+        long[] histogram = byteHistogram != null ? byteHistogram
+                : Metrics.has(settings.metrics(), Metrics.HISTOGRAM | Metrics.ENTROPY) ? new long[256] : null;
+        LineLengthSketch lineLengths = lineStats != null ? lineStats.toSketch()
+                : Metrics.has(settings.metrics(), Metrics.LINE_STATS) ? new LineLengthSketch() : null;
+
+        if (vocabulary != null) {
+            wordFragments.flush(vocabulary);
+            wordFragments = HashFragments.empty();
+        }
+
+        return switch (settings.malformedInputPolicy()) {
+            case REPLACE -> new CountResult(lines, allWords, chars + allMalformed, bytes, maxLineLength, vocabulary,
+                    patternCounts, histogram, lineLengths);
+            case IGNORE -> new CountResult(lines, allWords, chars, bytes, maxLineLength, vocabulary, patternCounts,
+                    histogram, lineLengths);
+            case REPORT -> {
+                if (allMalformed > 0) {
+                    throw new MalformedTextException(allMalformed);
+                }
+
+                yield new CountResult(lines, allWords, chars, bytes, maxLineLength, vocabulary, patternCounts,
+                        histogram, lineLengths);
+            }
+        };
+    }
+
+    private void copyFrom(ScanState other) {
+        lines = other.lines;
+        words = other.words;
+        chars = other.chars;
+        bytes = other.bytes;
+        malformed = other.malformed;
+        inWord = other.inWord;
+        startsInWord = other.startsInWord;
+        synchronizedOnUtf8 = other.synchronizedOnUtf8;
+        leadingContinuationBytes = other.leadingContinuationBytes;
+        firstByte = other.firstByte;
+        copyOpenSequenceFrom(other);
+    }
+
+    private void copyOpenSequenceFrom(ScanState other) {
+        pendingContinuationBytes = other.pendingContinuationBytes;
+        nextLowerBound = other.nextLowerBound;
+        nextUpperBound = other.nextUpperBound;
+        nextSurrogateFrom = other.nextSurrogateFrom;
+        pendingSurrogate = other.pendingSurrogate;
+        pendingHalfUnit = other.pendingHalfUnit;
+    }
+}
@@ -0,0 +1,26 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The kernel for the encodings where every byte is one char, like ISO-8859-1.
+ * The lines and words are left to the byte kernel, with the char counting turned off, so no window is ever checked
+ * for UTF-8, and the chars are simply the number of bytes.
+ */
+
+final class SingleByteScanKernel implements ScanKernel {
+    private final ScanKernel byteKernel;
+
+    SingleByteScanKernel(ScanKernel byteKernel) {
+        this.byteKernel = byteKernel;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        byteKernel.scan(buffer, state, metrics & ~Metrics.CHARS);
+
+        if (Metrics.has(metrics, Metrics.CHARS)) {
+            state.chars += buffer.remaining();
+        }
+    }
+}
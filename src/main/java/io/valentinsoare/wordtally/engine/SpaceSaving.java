@@ -0,0 +1,245 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * The Space-Saving summary of the most frequent tokens of a stream, in a fixed number of counters.
+ * A token already tracked gets its counter incremented; a new one, when all the counters are taken,
+ * replaces the token with the lowest count and inherits that count plus one, the inherited part being
+ * the most it can be over. So every count is at least the real one and over it by no more than the number
+ * of tokens seen divided by the number of counters, and any token seen more often than that is sure to be tracked.
+ * The counters sit in a min-heap, to find the lowest one in O(1), and are found by their token through
+ * an open-addressing index over the hashes, so a token costs O(log m) and no allocation unless it is new.
+ * Two summaries merge, as in the mergeable summaries of Agarwal et al., by adding up the counts of the tokens
+ * tracked by both, a token missing on one side taking the lowest count of that side, which keeps the bounds.
+ */
+
+public final class SpaceSaving implements TokenSink {
+    private final int capacity;
+
+    private final byte[][] tokens;
+    private final long[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;
+    private final int[] heapPositions;
+    private final int[] index;
+    private final int indexMask;
+    private int size;
+
+    /**
+     * @param capacity The number of counters, the only memory the summary ever takes.
+     */
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.tokens = new byte[capacity][];
+        this.hashes = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        this.index = new int[Integer.highestOneBit(Math.max(1, capacity) * 4 - 1) << 1];
+        this.indexMask = index.length - 1;
+
+        Arrays.fill(index, -1);
+    }
+
+    @Override
+    public void add(ByteBuffer source, int from, int length, long hash) {
+        int counter = find(source, from, length, hash);
+
+        if (counter >= 0) {
+            counts[counter] += 1;
+            siftDown(heapPositions[counter]);
+        } else if (size < capacity) {
+            track(size, source, from, length, hash, 1, 0);
+            heap[size] = size;
+            heapPositions[size] = size;
+            siftUp(size++);
+        } else {
+            int lowest = heap[0];
+
+            untrack(lowest);
+            track(lowest, source, from, length, hash, counts[lowest] + 1, counts[lowest]);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Merges two summaries into a new one with the capacity of the first, the summaries are left as they are.
+     */
+    public static SpaceSaving merge(SpaceSaving first, SpaceSaving second) {
+        SpaceSaving merged = new SpaceSaving(first.capacity);
+        List<Candidate> candidates = new ArrayList<>();
+        long firstLowest = first.lowestCount(), secondLowest = second.lowestCount();
+
+        for (int c = 0; c < first.size; c++) {
+            ByteBuffer token = ByteBuffer.wrap(first.tokens[c]);
+            int other = second.find(token, 0, first.tokens[c].length, first.hashes[c]);
+
+            long count = first.counts[c] + (other >= 0 ? second.counts[other] : secondLowest);
+            long error = first.errors[c] + (other >= 0 ? second.errors[other] : secondLowest);
+            candidates.add(new Candidate(first.tokens[c], first.hashes[c], count, error));
+        }
+
+        for (int c = 0; c < second.size; c++) {
+            if (first.find(ByteBuffer.wrap(second.tokens[c]), 0, second.tokens[c].length, second.hashes[c]) < 0) {
+                candidates.add(new Candidate(second.tokens[c], second.hashes[c],
+                        second.counts[c] + firstLowest, second.errors[c] + firstLowest));
+            }
+        }
+
+        candidates.sort((a, b) -> Long.compare(b.count(), a.count()));
+
+        for (Candidate c : candidates.subList(0, Math.min(merged.capacity, candidates.size()))) {
+            merged.track(merged.size, ByteBuffer.wrap(c.token()), 0, c.token().length, c.hash(), c.count(), c.error());
+            merged.heap[merged.size] = merged.size;
+            merged.heapPositions[merged.size] = merged.size;
+            merged.siftUp(merged.size++);
+        }
+
+        return merged;
+    }
+
+    /**
+     * @param k       The number of tokens to select.
+     * @param charset The charset of the input, the tokens are decoded with.
+     * @return The k tokens with the highest counts, each with the most its count can be over the real one.
+     */
+    public List<TokenCount> top(int k, Charset charset) {
+        Integer[] counters = new Integer[size];
+
+        for (int c = 0; c < size; c++) {
+            counters[c] = c;
+        }
+
+        Arrays.sort(counters, (a, b) -> counts[a] != counts[b]
+                ? Long.compare(counts[b], counts[a])
+                : Arrays.compareUnsigned(tokens[a], tokens[b]));
+
+        List<TokenCount> selected = new ArrayList<>();
+
+        for (int c = 0; c < Math.min(k, size); c++) {
+            int counter = counters[c];
+            selected.add(new TokenCount(new String(tokens[counter], charset),
+                    counts[counter], errors[counter]));
+        }
+
+        return selected;
+    }
+
+    private long lowestCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    private void track(int counter, ByteBuffer source, int from, int length, long hash, long count, long error) {
+        byte[] token = new byte[length];
+        source.get(from, token);
+
+        tokens[counter] = token;
+        hashes[counter] = hash;
+        counts[counter] = count;
+        errors[counter] = error;
+
+        int slot = (int) hash & indexMask;
+
+        while (index[slot] >= 0) {
+            slot = (slot + 1) & indexMask;
+        }
+
+        index[slot] = counter;
+    }
+
+    /**
+     * Removes the counter from the index, shifting back the entries after it so that no probe sequence is broken.
+     */
+    private void untrack(int counter) {
+        int slot = (int) hashes[counter] & indexMask;
+
+        while (index[slot] != counter) {
+            slot = (slot + 1) & indexMask;
+        }
+
+        int hole = slot;
+
+        for (int next = (hole + 1) & indexMask; index[next] >= 0; next = (next + 1) & indexMask) {
+            int home = (int) hashes[index[next]] & indexMask;
+
+            if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+
+        index[hole] = -1;
+    }
+
+    private int find(ByteBuffer source, int from, int length, long hash) {
+        for (int slot = (int) hash & indexMask; index[slot] >= 0; slot = (slot + 1) & indexMask) {
+            int counter = index[slot];
+
+            if (hashes[counter] == hash && tokens[counter].length == length && equalsAt(counter, source, from)) {
+                return counter;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean equalsAt(int counter, ByteBuffer source, int from) {
+        byte[] token = tokens[counter];
+
+        for (int i = 0; i < token.length; i++) {
+            if (token[i] != source.get(from + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void siftUp(int at) {
+        while (at > 0) {
+            int parent = (at - 1) / 2;
+
+            if (counts[heap[parent]] <= counts[heap[at]]) {
+                return;
+            }
+
+            swap(parent, at);
+            at = parent;
+        }
+    }
+
+    private void siftDown(int at) {
+        while (2 * at + 1 < size) {
+            int child = 2 * at + 1;
+
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child += 1;
+            }
+
+            if (counts[heap[at]] <= counts[heap[child]]) {
+                return;
+            }
+
+            swap(at, child);
+            at = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int t = heap[i];
+
+        heap[i] = heap[j];
+        heap[j] = t;
+        heapPositions[heap[i]] = i;
+        heapPositions[heap[j]] = j;
+    }
+
+    private record Candidate(byte[] token, long hash, long count, long error) {}
+}
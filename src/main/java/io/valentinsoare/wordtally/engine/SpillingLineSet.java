@@ -0,0 +1,212 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/***
+ * An exact set of lines that keeps to a memory budget by spilling to disk.
+ * The lines are hashed into 64 partitions, each one a TokenTable holding every distinct line once.
+ * When the tables outgrow the budget, the largest partition is written to a temp file and every later line
+ * of that partition is appended to the file instead. In the end a spilled partition is read back
+ * and deduplicated on its own, with the next bits of the hash splitting it into 64 smaller partitions,
+ * which can spill again the same way. Two lines only meet when they are in the same partition,
+ * so the count is exact, while no more than one partition's worth of lines is on the heap at a time,
+ * the tables of a level being dropped before its spilled partitions are read back.
+ * The budget is at least 4 MB, below that the empty tables alone would keep spilling to no end.
+ */
+
+final class SpillingLineSet implements Closeable {
+    private static final int PARTITION_BITS = 6;
+    private static final int NUMBER_OF_PARTITIONS = 1 << PARTITION_BITS;
+    private static final int MAX_DEPTH = Long.SIZE / PARTITION_BITS - 1;
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_MEMORY_BUDGET = 4L * 1024 * 1024;
+
+    private final long memoryBudget;
+    private final int depth;
+    private final TokenTable[] tables = new TokenTable[NUMBER_OF_PARTITIONS];
+    private final Path[] spillFiles = new Path[NUMBER_OF_PARTITIONS];
+    private final DataOutputStream[] spills = new DataOutputStream[NUMBER_OF_PARTITIONS];
+
+    private long footprint;
+    private boolean hasEmptyLine;
+
+    /**
+     * @param memoryBudget The bytes the tables may take before a partition is spilled.
+     */
+    SpillingLineSet(long memoryBudget) {
+        this(memoryBudget, 0);
+    }
+
+    private SpillingLineSet(long memoryBudget, int depth) {
+        this.memoryBudget = Math.max(MIN_MEMORY_BUDGET, memoryBudget);
+        this.depth = depth;
+    }
+
+    /**
+     * Adds a line, without its newline, possibly empty.
+     */
+    void addLine(ByteBuffer source, int from, int length) throws IOException {
+        if (length == 0) {
+            hasEmptyLine = true;
+            return;
+        }
+
+        long hash = TokenHash.of(source, from, length);
+        int partition = partitionOf(hash);
+
+        if (spills[partition] != null) {
+            writeLine(partition, source, from, length);
+            return;
+        }
+
+        if (tables[partition] == null) {
+            tables[partition] = new TokenTable();
+        }
+
+        long before = tables[partition].footprint();
+        tables[partition].add(source, from, length, hash, 1);
+        footprint += tables[partition].footprint() - before;
+
+        while (footprint > memoryBudget && depth < MAX_DEPTH) {
+            if (!spillLargestPartition()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The tables in memory are counted and dropped first, so that while a spilled partition is read back,
+     * the heap only holds the tables of that partition, and not the ones of every level above it.
+     *
+     * @return The exact number of distinct lines, the spilled partitions being read back one at a time.
+     * @throws IOException If a spill file cannot be read.
+     */
+    long count() throws IOException {
+        long count = hasEmptyLine ? 1 : 0;
+
+        for (int p = 0; p < NUMBER_OF_PARTITIONS; p++) {
+            if (tables[p] != null) {
+                count += tables[p].size();
+                tables[p] = null;
+            }
+        }
+
+        footprint = 0;
+
+        for (int p = 0; p < NUMBER_OF_PARTITIONS; p++) {
+            if (spills[p] != null) {
+                spills[p].close();
+                spills[p] = null;
+                count += countSpilled(spillFiles[p]);
+                Files.deleteIfExists(spillFiles[p]);
+                spillFiles[p] = null;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int p = 0; p < NUMBER_OF_PARTITIONS; p++) {
+            if (spills[p] != null) {
+                spills[p].close();
+            }
+
+            if (spillFiles[p] != null) {
+                Files.deleteIfExists(spillFiles[p]);
+            }
+        }
+    }
+
+    private long countSpilled(Path spillFile) throws IOException {
+        try (SpillingLineSet partition = new SpillingLineSet(memoryBudget, depth + 1);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile),
+                     SPILL_BUFFER_SIZE))) {
+            byte[] line = new byte[0];
+
+            while (true) {
+                int length;
+
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (line.length < length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+
+                in.readFully(line, 0, length);
+                partition.addLine(ByteBuffer.wrap(line), 0, length);
+            }
+
+            return partition.count();
+        }
+    }
+
+    /**
+     * @return False when there is nothing left in memory to spill.
+     */
+    private boolean spillLargestPartition() throws IOException {
+        int largest = -1;
+
+        for (int p = 0; p < NUMBER_OF_PARTITIONS; p++) {
+            if (tables[p] != null && (largest < 0 || tables[p].footprint() > tables[largest].footprint())) {
+                largest = p;
+            }
+        }
+
+        if (largest < 0) {
+            return false;
+        }
+
+        spillFiles[largest] = Files.createTempFile("wordtally-lines-", ".spill");
+        spills[largest] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFiles[largest]),
+                SPILL_BUFFER_SIZE));
+
+        int spilled = largest;
+
+        try {
+            tables[spilled].forEach((source, from, length, hash) -> {
+                try {
+                    writeLine(spilled, source, from, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        footprint -= tables[largest].footprint();
+        tables[largest] = null;
+
+        return true;
+    }
+
+    private void writeLine(int partition, ByteBuffer source, int from, int length) throws IOException {
+        DataOutputStream out = spills[partition];
+
+        out.writeInt(length);
+
+        if (source.hasArray()) {
+            out.write(source.array(), source.arrayOffset() + from, length);
+        } else {
+            for (int i = from; i < from + length; i++) {
+                out.write(source.get(i));
+            }
+        }
+    }
+
+    /**
+     * Every level of the recursion takes the next bits of the hash, from the top down.
+     */
+    private int partitionOf(long hash) {
+        return (int) (hash >>> (Long.SIZE - PARTITION_BITS * (depth + 1))) & (NUMBER_OF_PARTITIONS - 1);
+    }
+}
@@ -0,0 +1,152 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The SIMD-within-a-register kernel, for the JVMs without the Vector API and for the GraalVM native images.
+ * The bytes are read 8 at a time as a long, and with a few additions and masks every byte of the long
+ * ends up with its high bit set when it is a newline, a whitespace, a continuation byte or a lead byte,
+ * then a popcount on the high bits gives the number of matching bytes.
+ * A window is made of 8 longs, so the bookkeeping between windows is paid once for 64 bytes.
+ */
+
+final class SwarScanKernel extends WideScanKernel {
+    private static final int LONGS_PER_WINDOW = 8;
+
+    private static final VarHandle LONG_LITTLE_ENDIAN =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long FROM_SECOND_BYTE = HIGH_BITS & ~0xFFL;
+    private static final long FROM_THIRD_BYTE = HIGH_BITS & ~0xFFFFL;
+    private static final long FROM_FOURTH_BYTE = HIGH_BITS & ~0xFFFFFFL;
+
+    SwarScanKernel() {
+        super(Long.BYTES * LONGS_PER_WINDOW);
+    }
+
+    @Override
+    long countWindow(ByteBuffer buffer, int offset, ScanState state, boolean toCountUtf8, boolean continuing) {
+        long lines = 0, words = 0, nonContinuationBytes = 0;
+        boolean toCheckUtf8 = toCountUtf8 && !isAscii(buffer, offset);
+
+        if (toCountUtf8 && !toCheckUtf8) {
+            nonContinuationBytes = (long) Long.BYTES * LONGS_PER_WINDOW;
+        }
+
+        for (int k = 0; k < LONGS_PER_WINDOW; k++) {
+            int at = offset + k * Long.BYTES;
+            long current = load(buffer, at);
+            long previous = load(buffer, at - 1);
+
+            if (toCheckUtf8) {
+                long thirdBack = load(buffer, at - 3);
+
+                if (((current | thirdBack) & HIGH_BITS) == 0) {
+                    nonContinuationBytes += Long.BYTES;
+                } else {
+                    long secondBack = load(buffer, at - 2);
+                    long continuation = isContinuation(current);
+                    long previousIsContinuation = isContinuation(previous);
+
+                    long afterLead = inRange(previous, 0xC2, 0xF5);
+                    long secondAfterLead = inRange(secondBack, 0xE0, 0xF5) & previousIsContinuation;
+                    long thirdAfterLead = inRange(thirdBack, 0xF0, 0xF5)
+                            & isContinuation(secondBack) & previousIsContinuation;
+
+                    if (!continuing && k == 0) {
+                        afterLead &= FROM_SECOND_BYTE;
+                        secondAfterLead &= FROM_THIRD_BYTE;
+                        thirdAfterLead &= FROM_FOURTH_BYTE;
+                    }
+
+                    long expected = afterLead | secondAfterLead | thirdAfterLead;
+
+                    long invalid = inRange(current, 0xC0, 0xC2) | (~lowerThanUnsigned(current, 0xF5) & HIGH_BITS);
+                    long outOfRangeAfterLead = (equalTo(previous, 0xE0) & inRange(current, 0x80, 0xA0))
+                            | (equalTo(previous, 0xED) & inRange(current, 0xA0, 0xC0))
+                            | (equalTo(previous, 0xF0) & inRange(current, 0x80, 0x90))
+                            | (equalTo(previous, 0xF4) & inRange(current, 0x90, 0xC0));
+
+                    if (continuation != expected || (invalid | outOfRangeAfterLead) != 0) {
+                        return -1;
+                    }
+
+                    nonContinuationBytes += Long.BYTES - Long.bitCount(continuation);
+                }
+            }
+
+            lines += Long.bitCount(equalTo(current, '\n'));
+            words += Long.bitCount(isWhitespace(previous) & ~isWhitespace(current));
+        }
+
+        state.lines += lines;
+        state.words += words;
+
+        return nonContinuationBytes;
+    }
+
+    /**
+     * Checks the window together with the LOOK_BEHIND bytes before it, with no high bit there is no UTF-8 to check.
+     */
+    private static boolean isAscii(ByteBuffer buffer, int offset) {
+        long highBits = load(buffer, offset - LOOK_BEHIND);
+
+        for (int k = 0; k < LONGS_PER_WINDOW; k++) {
+            highBits |= load(buffer, offset + k * Long.BYTES);
+        }
+
+        return (highBits & HIGH_BITS) == 0;
+    }
+
+    private static long load(ByteBuffer buffer, int offset) {
+        return (long) LONG_LITTLE_ENDIAN.get(buffer, offset);
+    }
+
+    /**
+     * The high bit of every byte equal to zero, exact for all the bytes (no false positives from borrows).
+     */
+    private static long isZero(long v) {
+        return ~(((v & LOW_BITS) + LOW_BITS) | v) & HIGH_BITS;
+    }
+
+    private static long equalTo(long v, int c) {
+        return isZero(v ^ (c * ONES));
+    }
+
+    /**
+     * The high bit of every byte lower than n, for n between 0 and 128.
+     */
+    private static long lowerThan(long v, int n) {
+        return ~(((v & LOW_BITS) + (0x80 - n) * ONES) | v) & HIGH_BITS;
+    }
+
+    private static long isWhitespace(long v) {
+        return equalTo(v, ' ') | (lowerThan(v, '\r' + 1) & ~lowerThan(v, '\t'));
+    }
+
+    private static long isContinuation(long v) {
+        return v & ~(v << 1) & HIGH_BITS;
+    }
+
+    /**
+     * The high bit of every byte lower than n as an unsigned value, for n between 0 and 256.
+     */
+    private static long lowerThanUnsigned(long v, int n) {
+        if (n <= 0x80) {
+            return lowerThan(v, n);
+        }
+
+        return (~v | ~((v & LOW_BITS) + (0x100 - n) * ONES)) & HIGH_BITS;
+    }
+
+    private static long inRange(long v, int lowInclusive, int highExclusive) {
+        return lowerThanUnsigned(v, highExclusive) & ~lowerThanUnsigned(v, lowInclusive);
+    }
+}
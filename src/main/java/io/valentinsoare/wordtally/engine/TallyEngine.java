@@ -0,0 +1,299 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/***
+ * Here the words are tallied, every distinct token with the number of times it shows up, on all the cores.
+ * Each worker thread fills its own TokenTable, so the workers never share a table or take a lock, and the tables
+ * are merged only once, at the end. The files are split into regions the workers take one after another,
+ * a stream is cut into chunks by the reading loop of the PipelinedScanEngine, whose workers and pool of buffers
+ * are used for the regions as well. The tokens cut by a region or a chunk boundary come back as TokenFragments
+ * and are glued together in the order of the input. A region is a single chunk, read whole, so its tokens are
+ * always walked in order, and every file is opened once, by the first worker reaching one of its regions, and
+ * closed after its last one. The n-grams of tokens go the same way, with the NgramTokenizer and its NgramFragments
+ * in place of the Tokenizer and the TokenFragments. The heavy hitters go the same way too, only with a SpaceSaving
+ * summary for every worker in place of the table, so the memory stays the same however long the input is.
+ */
+
+@Component
+public class TallyEngine {
+    private static final int CHUNK_SIZE = PipelinedScanEngine.CHUNK_SIZE;
+
+    private final PipelinedScanEngine pipelinedScanEngine;
+
+    @Autowired
+    public TallyEngine(PipelinedScanEngine pipelinedScanEngine) {
+        this.pipelinedScanEngine = pipelinedScanEngine;
+    }
+
+    /**
+     * Tallies the tokens, or the n-grams of tokens, of all the files together, a file boundary always ending a token
+     * and no n-gram reaching from a file into the next one.
+     *
+     * @param inputFiles The files to be tallied.
+     * @param ngramSize  The number of tokens of an entry, 1 to tally the tokens themselves.
+     * @return The table with the entries of all the files.
+     * @throws IOException If a file cannot be opened or read.
+     */
+    public TokenTable tally(List<Path> inputFiles, int ngramSize) throws IOException {
+        return ngramSize == 1
+                ? summarize(inputFiles, TokenTable::new, TallyEngine::mergeTables, Tokenizer::tokenize)
+                : summarize(inputFiles, TokenTable::new, TallyEngine::mergeTables, ngramsOf(ngramSize));
+    }
+
+    /**
+     * Reads the stream to its end, without closing it, and tallies it chunk by chunk on the worker threads.
+     *
+     * @param inputStream The stream to be tallied.
+     * @param ngramSize   The number of tokens of an entry, 1 to tally the tokens themselves.
+     * @return The table with the entries of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    public TokenTable tally(InputStream inputStream, int ngramSize) throws IOException {
+        return ngramSize == 1
+                ? summarize(inputStream, TokenTable::new, TallyEngine::mergeTables, Tokenizer::tokenize)
+                : summarize(inputStream, TokenTable::new, TallyEngine::mergeTables, ngramsOf(ngramSize));
+    }
+
+    /**
+     * Finds the most frequent entries of all the files together in a fixed number of counters.
+     *
+     * @param inputFiles The files to be read.
+     * @param ngramSize  The number of tokens of an entry, 1 for the tokens themselves.
+     * @param counters   The number of counters of every summary.
+     * @return The summary of the entries of all the files.
+     * @throws IOException If a file cannot be opened or read.
+     */
+    public SpaceSaving tallyHeavyHitters(List<Path> inputFiles, int ngramSize, int counters) throws IOException {
+        return ngramSize == 1
+                ? summarize(inputFiles, () -> new SpaceSaving(counters), SpaceSaving::merge, Tokenizer::tokenize)
+                : summarize(inputFiles, () -> new SpaceSaving(counters), SpaceSaving::merge, ngramsOf(ngramSize));
+    }
+
+    /**
+     * Reads the stream to its end, without closing it, and finds its most frequent entries in a fixed number of counters.
+     *
+     * @param inputStream The stream to be read.
+     * @param ngramSize   The number of tokens of an entry, 1 for the tokens themselves.
+     * @param counters    The number of counters of every summary.
+     * @return The summary of the entries of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    public SpaceSaving tallyHeavyHitters(InputStream inputStream, int ngramSize, int counters) throws IOException {
+        return ngramSize == 1
+                ? summarize(inputStream, () -> new SpaceSaving(counters), SpaceSaving::merge, Tokenizer::tokenize)
+                : summarize(inputStream, () -> new SpaceSaving(counters), SpaceSaving::merge, ngramsOf(ngramSize));
+    }
+
+    private static BiFunction<ByteBuffer, TokenSink, NgramFragments> ngramsOf(int n) {
+        return (buffer, sink) -> NgramTokenizer.tokenize(buffer, sink, n);
+    }
+
+    private <S extends TokenSink, F extends RangeFragments<F>> S summarize(
+            List<Path> inputFiles, Supplier<S> newSink, BinaryOperator<S> merge,
+            BiFunction<ByteBuffer, TokenSink, F> tokenizer) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        List<OpenFile> files = new ArrayList<>();
+
+        for (int f = 0; f < inputFiles.size(); f++) {
+            long size = Files.size(inputFiles.get(f));
+            OpenFile file = new OpenFile(inputFiles.get(f), (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE));
+
+            files.add(file);
+
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                regions.add(new Region(f, file, position, (int) Math.min(CHUNK_SIZE, size - position)));
+            }
+        }
+
+        AtomicReferenceArray<F> fragments = new AtomicReferenceArray<>(regions.size());
+        AtomicInteger nextRegion = new AtomicInteger();
+        List<CompletableFuture<S>> sinks = new ArrayList<>();
+        List<S> filled;
+
+        try {
+            for (int w = 0; w < Math.min(pipelinedScanEngine.numberOfWorkers(), regions.size()); w++) {
+                sinks.add(pipelinedScanEngine.submitChunk(
+                        buffer -> tallyRegions(regions, nextRegion, fragments, newSink.get(), tokenizer, buffer),
+                        pipelinedScanEngine.takeBuffer()));
+            }
+
+            filled = joinAll(sinks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the input");
+        } finally {
+            for (OpenFile file : files) {
+                file.close();
+            }
+        }
+
+        S boundaries = newSink.get();
+        F joined = null;
+
+        for (int r = 0; r < regions.size(); r++) {
+            boolean startsFile = r == 0 || regions.get(r - 1).index() != regions.get(r).index();
+            boolean endsFile = r == regions.size() - 1 || regions.get(r + 1).index() != regions.get(r).index();
+
+            joined = startsFile ? fragments.get(r) : joined.append(fragments.get(r), boundaries);
+
+            if (endsFile) {
+                joined.flush(boundaries);
+            }
+        }
+
+        filled.add(boundaries);
+        return filled.stream().reduce(merge).orElseThrow();
+    }
+
+    private <S extends TokenSink, F extends RangeFragments<F>> S summarize(
+            InputStream inputStream, Supplier<S> newSink, BinaryOperator<S> merge,
+            BiFunction<ByteBuffer, TokenSink, F> tokenizer) throws IOException {
+        Map<Thread, S> sinksOfWorkers = new ConcurrentHashMap<>();
+        S boundaries = newSink.get();
+        List<F> total = new ArrayList<>(1);
+
+        pipelinedScanEngine.readInChunks(inputStream, first -> chunk -> {
+            S sink = sinksOfWorkers.computeIfAbsent(Thread.currentThread(), t -> newSink.get());
+            return tokenizer.apply(chunk, sink);
+        }, next -> {
+            if (total.isEmpty()) {
+                total.add(next);
+            } else {
+                total.set(0, total.get(0).append(next, boundaries));
+            }
+        });
+
+        if (!total.isEmpty()) {
+            total.get(0).flush(boundaries);
+        }
+
+        List<S> filled = new ArrayList<>(sinksOfWorkers.values());
+        filled.add(boundaries);
+
+        return filled.stream().reduce(merge).orElseThrow();
+    }
+
+    private <S extends TokenSink, F extends RangeFragments<F>> S tallyRegions(
+            List<Region> regions, AtomicInteger nextRegion, AtomicReferenceArray<F> fragments, S sink,
+            BiFunction<ByteBuffer, TokenSink, F> tokenizer, ByteBuffer buffer) {
+        for (int r = nextRegion.getAndIncrement(); r < regions.size(); r = nextRegion.getAndIncrement()) {
+            fragments.set(r, tokenizer.apply(readRegion(regions.get(r), buffer), sink));
+        }
+
+        return sink;
+    }
+
+    /**
+     * Reads the whole region into the buffer, so that its tokens are walked in the order of the input.
+     */
+    private static ByteBuffer readRegion(Region region, ByteBuffer buffer) {
+        buffer.clear().limit(region.length());
+
+        try {
+            FileChannel channel = region.file().channel();
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, region.position() + buffer.position()) <= 0) {
+                    break;
+                }
+            }
+
+            region.file().regionDone();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer.flip();
+    }
+
+    private static <S> List<S> joinAll(List<CompletableFuture<S>> sinks) throws IOException {
+        List<S> filled = new ArrayList<>();
+
+        try {
+            for (CompletableFuture<S> t : sinks) {
+                filled.add(t.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw u.getCause();
+            }
+
+            throw e;
+        }
+
+        return filled;
+    }
+
+    /**
+     * Merges the smaller table into the larger one, which saves copying the most tokens.
+     */
+    private static TokenTable mergeTables(TokenTable first, TokenTable second) {
+        TokenTable larger = first.size() >= second.size() ? first : second;
+
+        larger.addAll(larger == first ? second : first);
+        return larger;
+    }
+
+    private record Region(int index, OpenFile file, long position, int length) {}
+
+    /**
+     * A file whose channel is opened by the first region read from it and closed once all its regions are read.
+     */
+    private static final class OpenFile {
+        private final Path path;
+        private int regionsLeft;
+        private FileChannel channel;
+
+        OpenFile(Path path, int regions) {
+            this.path = path;
+            this.regionsLeft = regions;
+        }
+
+        synchronized FileChannel channel() throws IOException {
+            if (regionsLeft == 0) {
+                throw new ClosedChannelException();
+            }
+
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+
+            return channel;
+        }
+
+        synchronized void regionDone() throws IOException {
+            if (--regionsLeft == 0) {
+                close();
+            }
+        }
+
+        synchronized void close() throws IOException {
+            regionsLeft = 0;
+
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+/***
+ * Here we count the members of a tar archive, plain or gzip compressed, in one sequential pass over it,
+ * nothing being extracted to the disk. The headers are read as they come, ustar with its prefix, the pax
+ * extended headers for the long paths and the large sizes and the GNU long names, and the payload of every
+ * regular member is read in chunks into buffers taken from the shared pool of the PipelinedScanEngine and counted
+ * by its workers, so the reading never waits for the counting unless all the buffers are busy. The chunks of a member
+ * are appended in order into the state of the member, and the members are finished in the order of the archive.
+ * As for a zip, only the text members are counted, a member with a NUL in its first chunk being skipped.
+ */
+
+@Component
+public class TarScanEngine {
+    private static final int BLOCK_SIZE = 512;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_METADATA_SIZE = 1024 * 1024;
+    private static final int MAGIC_OFFSET = 257;
+    private static final String POSIX_MAGIC = "ustar\u000000";
+
+    private final PipelinedScanEngine pipelinedScanEngine;
+
+    @Autowired
+    public TarScanEngine(PipelinedScanEngine pipelinedScanEngine) {
+        this.pipelinedScanEngine = pipelinedScanEngine;
+    }
+
+    /**
+     * @return If the file is a ustar or pax archive, looking inside the gzip compression, if any.
+     */
+    public static boolean isTar(Path inputFile) throws IOException {
+        try (InputStream in = open(inputFile)) {
+            byte[] header = in.readNBytes(BLOCK_SIZE);
+
+            return header.length == BLOCK_SIZE
+                    && new String(header, MAGIC_OFFSET, 5, StandardCharsets.US_ASCII).equals("ustar");
+        } catch (EOFException | java.util.zip.ZipException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the archive once and counts every regular text member.
+     *
+     * @param archive  The tar file, or the tar.gz one.
+     * @param settings The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters of the text members, in the order of the archive.
+     * @throws IOException If the archive cannot be read or is not valid, or a member is malformed and the policy is REPORT.
+     */
+    public List<EntryCount> scan(Path archive, ScanSettings settings) throws IOException {
+        try (InputStream in = open(archive)) {
+            return new Pass(in, settings).readAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the archive");
+        }
+    }
+
+    private static InputStream open(Path inputFile) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(inputFile), CHUNK_SIZE);
+
+        in.mark(2);
+        boolean isGzip = in.read() == 0x1F && in.read() == 0x8B;
+        in.reset();
+
+        return isGzip ? new BufferedInputStream(new GZIPInputStream(in, CHUNK_SIZE), CHUNK_SIZE) : in;
+    }
+
+    /**
+     * The reading of one archive, with the members whose chunks are still being counted.
+     */
+    private final class Pass {
+        private final InputStream in;
+        private final ScanSettings settings;
+        private final Deque<PendingMember> pending = new ArrayDeque<>();
+        private final List<EntryCount> counted = new ArrayList<>();
+        private final byte[] header = new byte[BLOCK_SIZE];
+
+        private Pass(InputStream in, ScanSettings settings) {
+            this.in = in;
+            this.settings = settings;
+        }
+
+        List<EntryCount> readAll() throws IOException, InterruptedException {
+            Map<String, String> extended = Map.of();
+            String longName = null;
+
+            while (in.readNBytes(header, 0, BLOCK_SIZE) == BLOCK_SIZE && !isZeroBlock()) {
+                checkTheHeader();
+
+                long size = extended.containsKey("size") ? Long.parseLong(extended.get("size")) : numberAt(124, 12);
+                String name = extended.containsKey("path") ? extended.get("path")
+                        : longName != null ? longName : nameOfTheMember();
+
+                switch (header[156]) {
+                    case 'x' -> {
+                        extended = parseExtended(readMetadata(size));
+                        continue;
+                    }
+                    case 'L' -> {
+                        longName = cString(readMetadata(size), 0, (int) size);
+                        continue;
+                    }
+                    case '0', '\0', '7' -> countMember(name, size);
+                    default -> skip(size);
+                }
+
+                skip(paddingOf(size));
+                extended = Map.of();
+                longName = null;
+                finishTheDoneMembers(false);
+            }
+
+            finishTheDoneMembers(true);
+
+            return counted;
+        }
+
+        private void countMember(String name, long size) throws IOException, InterruptedException {
+            ScanState state = new ScanState();
+            List<CompletableFuture<ScanState>> chunks = new ArrayList<>();
+            ScanKernel kernel = null;
+
+            for (long left = size; left > 0; ) {
+                ByteBuffer buffer = pipelinedScanEngine.takeBuffer();
+                int length = (int) Math.min(CHUNK_SIZE, left);
+
+                try {
+                    if (in.readNBytes(buffer.array(), 0, length) < length) {
+                        throw new EOFException(String.format("the member %s of the archive is truncated", name));
+                    }
+                } catch (IOException e) {
+                    pipelinedScanEngine.giveBack(buffer);
+                    throw e;
+                }
+
+                left -= length;
+                buffer.clear().limit(length);
+
+                if (kernel == null) {
+                    if (settings.encoding().isBinary(buffer)) {
+                        pipelinedScanEngine.giveBack(buffer);
+                        skip(left);
+                        return;
+                    }
+
+                    kernel = ScanKernels.forInput(settings, buffer, state);
+                }
+
+                chunks.add(pipelinedScanEngine.submitChunk(kernel, buffer, settings.metrics()));
+            }
+
+            pending.add(new PendingMember(name, state, chunks));
+        }
+
+        /**
+         * Finishes the members at the front whose chunks are all counted, or all of them, waiting for their chunks.
+         */
+        private void finishTheDoneMembers(boolean all) throws IOException {
+            while (!pending.isEmpty() && (all || pending.peek().isDone())) {
+                PendingMember member = pending.poll();
+
+                for (CompletableFuture<ScanState> chunk : member.chunks()) {
+                    member.state().append(chunk.join());
+                }
+
+                counted.add(new EntryCount(member.name(), member.state().toResult(settings)));
+            }
+        }
+
+        private boolean isZeroBlock() {
+            for (byte b : header) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * The checksum is the sum of the header bytes, with the checksum field taken as spaces.
+         */
+        private void checkTheHeader() throws IOException {
+            long sum = 0;
+
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+            }
+
+            if (sum != numberAt(148, 8)) {
+                throw new IOException("not a valid tar archive, a header has a wrong checksum");
+            }
+        }
+
+        /**
+         * The prefix is only there in the POSIX headers, the GNU ones, with "ustar  " as magic,
+         * keeping the access and change times at the same offset.
+         */
+        private String nameOfTheMember() {
+            String name = cString(header, 0, 100);
+            String prefix = new String(header, MAGIC_OFFSET, 8, StandardCharsets.US_ASCII).equals(POSIX_MAGIC)
+                    ? cString(header, 345, 155) : "";
+
+            return prefix.isEmpty() ? name : prefix + "/" + name;
+        }
+
+        /**
+         * @return The octal number of the field, or the big-endian binary one when its first bit is set, as GNU tar writes the large sizes.
+         */
+        private long numberAt(int offset, int length) {
+            long value = 0;
+
+            if ((header[offset] & 0x80) != 0) {
+                for (int i = offset + 1; i < offset + length; i++) {
+                    value = (value << 8) | (header[i] & 0xFF);
+                }
+
+                return value;
+            }
+
+            for (int i = offset; i < offset + length; i++) {
+                if (header[i] >= '0' && header[i] <= '7') {
+                    value = (value << 3) | (header[i] - '0');
+                } else if (header[i] == 0 || (header[i] == ' ' && value > 0)) {
+                    break;
+                }
+            }
+
+            return value;
+        }
+
+        private byte[] readMetadata(long size) throws IOException {
+            if (size > MAX_METADATA_SIZE) {
+                throw new IOException("not a valid tar archive, an extended header is too large");
+            }
+
+            byte[] metadata = in.readNBytes((int) size);
+
+            if (metadata.length < size) {
+                throw new EOFException("the archive is truncated");
+            }
+
+            skip(paddingOf(size));
+
+            return metadata;
+        }
+
+        /**
+         * Reads the records of a pax extended header, each one as "length key=value\n".
+         */
+        private Map<String, String> parseExtended(byte[] records) throws IOException {
+            Map<String, String> extended = new HashMap<>();
+
+            for (int at = 0; at < records.length; ) {
+                int space = at;
+
+                while (space < records.length && records[space] != ' ') {
+                    space++;
+                }
+
+                int length;
+
+                try {
+                    length = Integer.parseInt(new String(records, at, space - at, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    throw new IOException("not a valid tar archive, a pax record has no length");
+                }
+
+                if (length <= space - at || at + length > records.length) {
+                    throw new IOException("not a valid tar archive, a pax record has a wrong length");
+                }
+
+                String record = new String(records, space + 1, at + length - space - 2, StandardCharsets.UTF_8);
+                int equals = record.indexOf('=');
+
+                if (equals > 0) {
+                    extended.put(record.substring(0, equals), record.substring(equals + 1));
+                }
+
+                at += length;
+            }
+
+            return extended;
+        }
+
+        private void skip(long length) throws IOException {
+            in.skipNBytes(length);
+        }
+
+        private long paddingOf(long size) {
+            return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+        }
+
+        private String cString(byte[] bytes, int offset, int length) {
+            int end = offset;
+
+            while (end < offset + length && bytes[end] != 0) {
+                end++;
+            }
+
+            return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+        }
+    }
+
+    private record PendingMember(String name, ScanState state, List<CompletableFuture<ScanState>> chunks) {
+        boolean isDone() {
+            return chunks.stream().allMatch(CompletableFuture::isDone);
+        }
+    }
+}
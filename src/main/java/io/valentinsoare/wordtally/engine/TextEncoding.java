@@ -0,0 +1,114 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/***
+ * The encodings the input can be counted in, each one with its own kernel.
+ * UTF-16 without an explicit byte order looks for a byte order mark at the start of the input, like the decoder,
+ * it drops the mark and falls back to big-endian when there is none. SINGLE_BYTE covers ISO-8859-1 and any other
+ * charset where one byte is always one char, which is what the platform locale usually resolves to
+ * when it is not UTF-8, so the chars are the bytes and nothing has to be decoded.
+ */
+
+public enum TextEncoding {
+    UTF_8,
+    UTF_16,
+    UTF_16BE,
+    UTF_16LE,
+    SINGLE_BYTE;
+
+    public static final String PLATFORM_LOCALE = "locale";
+
+    private static final int BYTE_ORDER_MARK_LENGTH = 2;
+
+    /**
+     * Resolves a name given by the user, any charset name or alias known by the JVM, or "locale" for the platform one.
+     *
+     * @param name The name of the encoding.
+     * @return The encoding that counts the input as that charset would decode it.
+     */
+    public static TextEncoding fromName(String name) {
+        if (PLATFORM_LOCALE.equalsIgnoreCase(name.trim())) {
+            return fromCharset(Charset.defaultCharset());
+        }
+
+        try {
+            return fromCharset(Charset.forName(name.trim()));
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new IllegalArgumentException(String.format("unknown encoding '%s'", name));
+        }
+    }
+
+    /**
+     * @param charset A charset of the JVM.
+     * @return The encoding for the charset.
+     * @throws IllegalArgumentException If the charset is neither UTF-8, UTF-16 nor a single byte one.
+     */
+    public static TextEncoding fromCharset(Charset charset) {
+        return switch (charset.name()) {
+            case "UTF-8" -> UTF_8;
+            case "UTF-16" -> UTF_16;
+            case "UTF-16BE" -> UTF_16BE;
+            case "UTF-16LE" -> UTF_16LE;
+            default -> {
+                if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f) {
+                    yield SINGLE_BYTE;
+                }
+
+                throw new IllegalArgumentException(String.format("the encoding '%s' is not supported", charset.name()));
+            }
+        };
+    }
+
+    /**
+     * Settles the byte order of UTF-16 from the first bytes of the input, the other encodings stay as they are.
+     *
+     * @param head The first bytes of the input, from its position, the buffer is not moved.
+     * @return The encoding to count the whole input with.
+     */
+    public TextEncoding resolve(ByteBuffer head) {
+        if (this != UTF_16) {
+            return this;
+        }
+
+        return byteOrderMarkLength(head) > 0 && (head.get(head.position()) & 0xFF) == 0xFF ? UTF_16LE : UTF_16BE;
+    }
+
+    /**
+     * Tells a binary input the way grep and git do, by a NUL in its first bytes, which UTF-16 text is full of.
+     *
+     * @param head The first bytes of the input, from its position, the buffer is not moved.
+     * @return If the input is not text in this encoding.
+     */
+    public boolean isBinary(ByteBuffer head) {
+        if (this == UTF_16 || this == UTF_16BE || this == UTF_16LE) {
+            return false;
+        }
+
+        for (int i = head.position(); i < head.limit(); i++) {
+            if (head.get(i) == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param head The first bytes of the input, from its position, the buffer is not moved.
+     * @return How many bytes at the head are a byte order mark to be dropped, not counted as a char.
+     */
+    public int byteOrderMarkLength(ByteBuffer head) {
+        if (this != UTF_16 || head.remaining() < BYTE_ORDER_MARK_LENGTH) {
+            return 0;
+        }
+
+        int first = head.get(head.position()) & 0xFF, second = head.get(head.position() + 1) & 0xFF;
+        boolean isMark = (first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE);
+
+        return isMark ? BYTE_ORDER_MARK_LENGTH : 0;
+    }
+}
@@ -0,0 +1,13 @@
+package io.valentinsoare.wordtally.engine;
+
+/***
+ * A token selected from a TokenTable, decoded with the charset of the input, with the number of times it was found in the input.
+ * When it comes from a SpaceSaving summary the count is an estimate, never below the real one,
+ * and the error is the most it can be over, so the real count is somewhere between count - error and count.
+ */
+
+public record TokenCount(String token, long count, long error) {
+    public TokenCount(String token, long count) {
+        this(token, count, 0);
+    }
+}
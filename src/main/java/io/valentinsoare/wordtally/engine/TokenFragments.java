@@ -0,0 +1,101 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/***
+ * The tokens cut by the ends of a range, which cannot be counted until the neighbouring ranges are known.
+ * The head holds the bytes before the first whitespace of the range and the tail the bytes after the last one;
+ * a range without any whitespace is whole, its bytes are only a piece of a longer token and it has no tail.
+ * Appending the fragments of two neighbouring ranges completes the token across their boundary,
+ * the same way the ScanState glues back the words cut in two.
+ */
+
+final class TokenFragments implements RangeFragments<TokenFragments> {
+    static final byte[] NONE = new byte[0];
+
+    private byte[] head;
+    private int headLength;
+    private byte[] tail;
+    private int tailLength;
+    private boolean whole;
+
+    TokenFragments(byte[] head, byte[] tail, boolean whole) {
+        this.head = head;
+        this.headLength = head.length;
+        this.tail = tail;
+        this.tailLength = tail.length;
+        this.whole = whole;
+    }
+
+    /**
+     * Appends the fragments of the range right after this one, the token completed at the boundary goes to the sink.
+     * The fragments of the next range are taken over, so they are not to be used again.
+     *
+     * @param next The fragments of the following range.
+     * @param sink The sink receiving the completed token.
+     * @return This fragments, now covering both ranges.
+     */
+    @Override
+    public TokenFragments append(TokenFragments next, TokenSink sink) {
+        if (whole) {
+            head = put(head, headLength, next.head, next.headLength);
+            headLength += next.headLength;
+            tail = next.tail;
+            tailLength = next.tailLength;
+            whole = next.whole;
+        } else if (next.whole) {
+            tail = put(tail, tailLength, next.head, next.headLength);
+            tailLength += next.headLength;
+        } else {
+            tail = put(tail, tailLength, next.head, next.headLength);
+            addTo(sink, tail, tailLength + next.headLength);
+            tail = next.tail;
+            tailLength = next.tailLength;
+        }
+
+        return this;
+    }
+
+    /**
+     * Closes the range as a whole input, its head and tail being complete tokens.
+     *
+     * @param sink The sink receiving the tokens.
+     */
+    @Override
+    public void flush(TokenSink sink) {
+        addTo(sink, head, headLength);
+
+        if (!whole) {
+            addTo(sink, tail, tailLength);
+        }
+    }
+
+    private static void addTo(TokenSink sink, byte[] token, int length) {
+        if (length > 0) {
+            sink.add(ByteBuffer.wrap(token), 0, length, TokenHash.of(ByteBuffer.wrap(token), 0, length));
+        }
+    }
+
+    /**
+     * Writes the second piece after the first one, growing the array of the first one by doubling it,
+     * so a token cut into many ranges is copied a constant number of times on average.
+     *
+     * @return The array holding both pieces, the first one's or the second one's when the first piece is empty.
+     */
+    static byte[] put(byte[] first, int firstLength, byte[] second, int secondLength) {
+        if (secondLength == 0) {
+            return first;
+        }
+
+        if (firstLength == 0) {
+            return second;
+        }
+
+        byte[] joined = first.length >= firstLength + secondLength ? first
+                : Arrays.copyOf(first, Math.max(firstLength + secondLength, first.length * 2));
+        System.arraycopy(second, 0, joined, firstLength, secondLength);
+
+        return joined;
+    }
+}
@@ -0,0 +1,71 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The 64-bit hash of the tokens, a polynomial over the bytes finished with the MurmurHash3 mix, so that every bit
+ * of the result depends on every byte: the low bits pick the slot of a TokenTable and the high ones
+ * the register of a HyperLogLog. The polynomial part can be fed one byte at a time while the token is walked,
+ * and the parts of two pieces of a token can be joined knowing only the length of the second one,
+ * so a token cut by the ends of the ranges is hashed without keeping its bytes.
+ */
+
+final class TokenHash {
+    static final long EMPTY = 0;
+    static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private TokenHash() {}
+
+    /**
+     * The bytes are taken from 1 to 256, a leading zero byte would not change the hash otherwise.
+     */
+    static long next(long hash, byte b) {
+        return hash * PRIME + (b & 0xFF) + 1;
+    }
+
+    /**
+     * @return The unfinished hash of the first piece followed by the second one, of the given length.
+     */
+    static long join(long first, long second, long secondLength) {
+        long power = 1, base = PRIME;
+
+        for (long e = secondLength; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                power *= base;
+            }
+
+            base *= base;
+        }
+
+        return first * power + second;
+    }
+
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * @return The unfinished hash of the bytes, to be joined with its neighbours or finished.
+     */
+    static long partOf(ByteBuffer source, int from, int length) {
+        long hash = EMPTY;
+
+        for (int i = from; i < from + length; i++) {
+            hash = next(hash, source.get(i));
+        }
+
+        return hash;
+    }
+
+    static long of(ByteBuffer source, int from, int length) {
+        return finish(partOf(source, from, length));
+    }
+
+    static long of(byte[] token) {
+        return of(ByteBuffer.wrap(token), 0, token.length);
+    }
+}
@@ -0,0 +1,17 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * Where the Tokenizer puts the tokens it finds, a TokenTable keeping them all or a sketch keeping only their hashes.
+ */
+
+interface TokenSink {
+    /**
+     * @param source The bytes of the token, read between the given offsets, the buffer is not moved.
+     * @param from   The index of the first byte of the token.
+     * @param length The number of bytes of the token, at least one.
+     * @param hash   The hash of the token as given by TokenHash.
+     */
+    void add(ByteBuffer source, int from, int length, long hash);
+}
@@ -0,0 +1,347 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/***
+ * An open-addressing hash table from tokens to their counts, made only of primitive arrays.
+ * The tokens are kept as byte slices in pages growing from 4 KB to 1 MB, a slot being the address of its slice plus its length,
+ * hash and count in parallel arrays, so tens of millions of distinct tokens cost no object per token,
+ * nothing for the GC to trace and no decoding to String until the few selected ones are printed.
+ * A table is not thread-safe, every worker fills its own and the tables are merged at the end.
+ */
+
+public final class TokenTable implements TokenSink {
+    private static final int MIN_PAGE_SIZE = 1 << 12;
+    private static final int MAX_PAGE_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1 << 8;
+    private static final int SORT_ALL_RATIO = 8;
+    private static final int SLOT_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private byte[][] pages = new byte[8][];
+    private int numberOfPages;
+    private int pageFill;
+    private int pageCapacity;
+    private long pageBytes;
+
+    private long[] addresses;
+    private int[] lengths;
+    private int[] hashes;
+    private long[] counts;
+    private int mask;
+    private int size;
+
+    public TokenTable() {
+        allocateSlots(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The bytes held by the pages and the slots, what the table costs on the heap give or take a few objects.
+     */
+    public long footprint() {
+        return pageBytes + (long) lengths.length * SLOT_SIZE;
+    }
+
+    /**
+     * Gives every token of the table to the sink, in the order of the slots, with the low 32 bits of its hash.
+     */
+    void forEach(TokenSink sink) {
+        for (int slot = 0; slot < lengths.length; slot++) {
+            if (lengths[slot] != 0) {
+                long address = addresses[slot];
+
+                sink.add(ByteBuffer.wrap(pages[pageOf(address)]), offsetOf(address), lengths[slot], hashes[slot]);
+            }
+        }
+    }
+
+    /**
+     * @param source The bytes of the token, read between the given offsets, the buffer is not moved.
+     * @param from   The index of the first byte of the token.
+     * @param length The number of bytes of the token, at least one.
+     * @param hash   The hash of the token as given by TokenHash, only its low bits are kept in the slot.
+     * @param count  How many times the token is added.
+     */
+    public void add(ByteBuffer source, int from, int length, long hash, long count) {
+        add(source, from, length, (int) hash, count);
+    }
+
+    @Override
+    public void add(ByteBuffer source, int from, int length, long hash) {
+        add(source, from, length, (int) hash, 1);
+    }
+
+    private void add(ByteBuffer source, int from, int length, int hash, long count) {
+        int slot = hash & mask;
+
+        while (lengths[slot] != 0) {
+            if (hashes[slot] == hash && lengths[slot] == length && equalsAt(slot, source, from, length)) {
+                counts[slot] += count;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        addresses[slot] = store(source, from, length);
+        lengths[slot] = length;
+        hashes[slot] = hash;
+        counts[slot] = count;
+        size += 1;
+
+        if (size * 4L > lengths.length * 3L) {
+            allocateSlots(lengths.length * 2);
+        }
+    }
+
+    /**
+     * Adds all the tokens of another table to this one, the other table is left as it is.
+     */
+    public void addAll(TokenTable other) {
+        for (int slot = 0; slot < other.lengths.length; slot++) {
+            if (other.lengths[slot] != 0) {
+                long address = other.addresses[slot];
+                ByteBuffer page = ByteBuffer.wrap(other.pages[pageOf(address)]);
+
+                add(page, offsetOf(address), other.lengths[slot], other.hashes[slot], other.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Selects the tokens with the highest counts with a bounded heap, so only k slots are ever ordered.
+     * When k covers most of the table the tokens are copied out and sorted instead, which walks the pages
+     * once rather than jumping between them on every comparison of the heap.
+     * The ties are broken by the bytes of the tokens, to print the same list on every run.
+     *
+     * @param k       The number of tokens to select, any number above the size selects them all.
+     * @param charset The charset of the input, the tokens are decoded with.
+     * @return The selected tokens, from the most frequent one down.
+     */
+    public List<TokenCount> top(int k, Charset charset) {
+        if (k > size / SORT_ALL_RATIO) {
+            return sortAll(k, charset);
+        }
+
+        int[] heap = new int[Math.min(k, size)];
+        int heapSize = 0;
+
+        for (int slot = 0; slot < lengths.length && heap.length > 0; slot++) {
+            if (lengths[slot] == 0) {
+                continue;
+            }
+
+            if (heapSize < heap.length) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (ranksBefore(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        TokenCount[] selected = new TokenCount[heapSize];
+
+        while (heapSize > 0) {
+            int slot = heap[0];
+
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+            selected[heapSize] = new TokenCount(tokenAt(slot, charset), counts[slot]);
+        }
+
+        return new ArrayList<>(Arrays.asList(selected));
+    }
+
+    private boolean equalsAt(int slot, ByteBuffer source, int from, int length) {
+        byte[] page = pages[pageOf(addresses[slot])];
+        int offset = offsetOf(addresses[slot]);
+
+        for (int i = 0; i < length; i++) {
+            if (page[offset + i] != source.get(from + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the token at the end of the current page, a token longer than a page gets a page of its own.
+     * Every new page is twice the previous one up to 1 MB, so a small table stays small.
+     */
+    private long store(ByteBuffer source, int from, int length) {
+        if (length > pageCapacity - pageFill) {
+            if (numberOfPages == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            }
+
+            int pageSize = Math.max(length, Math.min(MAX_PAGE_SIZE, MIN_PAGE_SIZE << Math.min(numberOfPages, 8)));
+
+            pages[numberOfPages++] = new byte[pageSize];
+            pageFill = 0;
+            pageCapacity = pageSize;
+            pageBytes += pageSize;
+        }
+
+        source.get(from, pages[numberOfPages - 1], pageFill, length);
+
+        long address = ((long) (numberOfPages - 1) << Integer.SIZE) | pageFill;
+        pageFill += length;
+
+        return address;
+    }
+
+    private List<TokenCount> sortAll(int k, Charset charset) {
+        List<Entry> entries = new ArrayList<>(size);
+
+        for (int slot = 0; slot < lengths.length; slot++) {
+            if (lengths[slot] != 0) {
+                int offset = offsetOf(addresses[slot]);
+                byte[] token = Arrays.copyOfRange(pages[pageOf(addresses[slot])], offset, offset + lengths[slot]);
+
+                entries.add(new Entry(token, prefixOf(token), counts[slot]));
+            }
+        }
+
+        entries.sort(TokenTable::compareEntries);
+
+        return entries.stream()
+                .limit(k)
+                .map(e -> new TokenCount(new String(e.token(), charset), e.count()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private String tokenAt(int slot, Charset charset) {
+        return new String(pages[pageOf(addresses[slot])], offsetOf(addresses[slot]), lengths[slot], charset);
+    }
+
+    private static int pageOf(long address) {
+        return (int) (address >>> Integer.SIZE);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private void allocateSlots(int capacity) {
+        long[] oldAddresses = addresses, oldCounts = counts;
+        int[] oldLengths = lengths, oldHashes = hashes;
+
+        addresses = new long[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+
+        if (oldLengths == null) {
+            return;
+        }
+
+        for (int old = 0; old < oldLengths.length; old++) {
+            if (oldLengths[old] != 0) {
+                int slot = oldHashes[old] & mask;
+
+                while (lengths[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                addresses[slot] = oldAddresses[old];
+                lengths[slot] = oldLengths[old];
+                hashes[slot] = oldHashes[old];
+                counts[slot] = oldCounts[old];
+            }
+        }
+    }
+
+    /**
+     * @return True when the first slot comes before the second one in the output, a higher count or the lower bytes.
+     */
+    private boolean ranksBefore(int first, int second) {
+        if (counts[first] != counts[second]) {
+            return counts[first] > counts[second];
+        }
+
+        byte[] firstPage = pages[pageOf(addresses[first])], secondPage = pages[pageOf(addresses[second])];
+        int firstOffset = offsetOf(addresses[first]), secondOffset = offsetOf(addresses[second]);
+
+        return Arrays.compareUnsigned(firstPage, firstOffset, firstOffset + lengths[first],
+                secondPage, secondOffset, secondOffset + lengths[second]) < 0;
+    }
+
+    /**
+     * The heap keeps the slot ranked last on top, the one to be dropped when a better slot shows up.
+     */
+    private void siftUp(int[] heap, int at) {
+        while (at > 0) {
+            int parent = (at - 1) / 2;
+
+            if (!ranksBefore(heap[parent], heap[at])) {
+                return;
+            }
+
+            swap(heap, parent, at);
+            at = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        int at = 0;
+
+        while (2 * at + 1 < heapSize) {
+            int child = 2 * at + 1;
+
+            if (child + 1 < heapSize && ranksBefore(heap[child], heap[child + 1])) {
+                child += 1;
+            }
+
+            if (!ranksBefore(heap[at], heap[child])) {
+                return;
+            }
+
+            swap(heap, at, child);
+            at = child;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+    }
+
+    private static int compareEntries(Entry first, Entry second) {
+        if (first.count() != second.count()) {
+            return Long.compare(second.count(), first.count());
+        }
+
+        if (first.prefix() != second.prefix()) {
+            return Long.compareUnsigned(first.prefix(), second.prefix());
+        }
+
+        return Arrays.compareUnsigned(first.token(), second.token());
+    }
+
+    /**
+     * The first 8 bytes of the token as an unsigned number, padded with zeros, which orders like the bytes.
+     */
+    private static long prefixOf(byte[] token) {
+        long prefix = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = (prefix << Byte.SIZE) | (i < token.length ? token[i] & 0xFF : 0);
+        }
+
+        return prefix;
+    }
+
+    private record Entry(byte[] token, long prefix, long count) {}
+}
@@ -0,0 +1,101 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * Splits a range of bytes into tokens, the runs of bytes between the whitespace bytes, the same words
+ * the kernels count. The tokens inside the range go straight into a TokenSink, hashed while they are walked,
+ * without copying them anywhere else; only the first and the last ones, which may continue in the
+ * neighbouring ranges, are copied out as TokenFragments, or only hashed as HashFragments when the sink
+ * keeps nothing but the hashes.
+ */
+
+final class Tokenizer {
+    private Tokenizer() {}
+
+    /**
+     * @param buffer The bytes between its position and its limit, the buffer is not moved.
+     * @param sink   The sink receiving the tokens found entirely inside the range.
+     * @return The fragments at both ends of the range.
+     */
+    static TokenFragments tokenize(ByteBuffer buffer, TokenSink sink) {
+        int from = buffer.position(), to = buffer.limit();
+        int headEnd = endOfTheHead(buffer);
+
+        if (headEnd == to) {
+            return new TokenFragments(copy(buffer, from, to), TokenFragments.NONE, true);
+        }
+
+        int tailStart = tokenizeTheMiddle(buffer, headEnd, sink);
+
+        return new TokenFragments(copy(buffer, from, headEnd), copy(buffer, tailStart, to), false);
+    }
+
+    /**
+     * @param buffer The bytes between its position and its limit, the buffer is not moved.
+     * @param sketch The sketch receiving the tokens found entirely inside the range.
+     * @return The hashes of the fragments at both ends of the range.
+     */
+    static HashFragments hashes(ByteBuffer buffer, HyperLogLog sketch) {
+        int from = buffer.position(), to = buffer.limit();
+        int headEnd = endOfTheHead(buffer);
+
+        if (headEnd == to) {
+            return HashFragments.whole(buffer, from, to);
+        }
+
+        return HashFragments.cut(buffer, from, headEnd, tokenizeTheMiddle(buffer, headEnd, sketch), to);
+    }
+
+    private static int endOfTheHead(ByteBuffer buffer) {
+        int i = buffer.position(), to = buffer.limit();
+
+        while (i < to && !ScalarScanKernel.isWhitespace(buffer.get(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Hands over the tokens from the first whitespace on, all but the last one when it reaches the end of the range.
+     *
+     * @return Where the token cut by the end of the range starts, or the limit when there is none.
+     */
+    private static int tokenizeTheMiddle(ByteBuffer buffer, int from, TokenSink sink) {
+        int to = buffer.limit();
+        int start = -1;
+        long hash = 0;
+
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+
+            if (ScalarScanKernel.isWhitespace(b)) {
+                if (start >= 0) {
+                    sink.add(buffer, start, i - start, TokenHash.finish(hash));
+                    start = -1;
+                }
+            } else {
+                if (start < 0) {
+                    start = i;
+                    hash = TokenHash.EMPTY;
+                }
+
+                hash = TokenHash.next(hash, b);
+            }
+        }
+
+        return start >= 0 ? start : to;
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            return TokenFragments.NONE;
+        }
+
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,122 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Here we count the distinct lines of the input exactly, with the same result as sort -u | wc -l in the C locale.
+ * The input is read in chunks and cut into lines on the newline bytes, the lines inside a chunk are hashed
+ * right from the buffer, and only the line cut by the end of a chunk is copied, to be completed by the next one.
+ * The lines go into a SpillingLineSet, which spills to temp files whatever does not fit in the memory budget.
+ * As for sort, every file ends its last line, with or without a newline at the end. The lines are cut on the byte
+ * of the newline, so only the encodings where it is a single byte, UTF-8 and the single byte ones, can be read.
+ */
+
+@Component
+public class UniqueLinesEngine {
+    public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    public UniqueLinesEngine() {}
+
+    /**
+     * @param inputFiles   The files to be read, one after another.
+     * @param memoryBudget The bytes the distinct lines may take on the heap before they spill to disk.
+     * @return The number of distinct lines in all the files together.
+     * @throws IOException If a file cannot be read or a spill file cannot be written.
+     */
+    public long countUniqueLines(List<Path> inputFiles, long memoryBudget) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        try (SpillingLineSet lines = new SpillingLineSet(memoryBudget)) {
+            for (Path f : inputFiles) {
+                try (FileChannel channel = FileChannel.open(f, StandardOpenOption.READ)) {
+                    LineCarry carry = new LineCarry();
+
+                    while (channel.read(buffer.clear()) != -1) {
+                        addLines(buffer.flip(), carry, lines);
+                    }
+
+                    carry.flush(lines);
+                }
+            }
+
+            return lines.count();
+        }
+    }
+
+    /**
+     * @param inputStream  The stream to be read to its end, it is not closed.
+     * @param memoryBudget The bytes the distinct lines may take on the heap before they spill to disk.
+     * @return The number of distinct lines in the stream.
+     * @throws IOException If the stream cannot be read or a spill file cannot be written.
+     */
+    public long countUniqueLines(InputStream inputStream, long memoryBudget) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        LineCarry carry = new LineCarry();
+
+        try (SpillingLineSet lines = new SpillingLineSet(memoryBudget)) {
+            int readBytes;
+
+            while ((readBytes = inputStream.readNBytes(buffer.array(), 0, CHUNK_SIZE)) > 0) {
+                addLines(buffer.clear().limit(readBytes), carry, lines);
+            }
+
+            carry.flush(lines);
+            return lines.count();
+        }
+    }
+
+    private static void addLines(ByteBuffer buffer, LineCarry carry, SpillingLineSet lines) throws IOException {
+        int start = buffer.position(), to = buffer.limit();
+
+        for (int i = start; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                if (carry.length > 0) {
+                    carry.append(buffer, start, i);
+                    carry.flush(lines);
+                } else {
+                    lines.addLine(buffer, start, i - start);
+                }
+
+                start = i + 1;
+            }
+        }
+
+        carry.append(buffer, start, to);
+    }
+
+    /**
+     * The line cut by the end of a chunk, nothing is pending when the chunk ends right after a newline.
+     */
+    private static final class LineCarry {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        void append(ByteBuffer buffer, int from, int to) {
+            if (length + to - from > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + to - from));
+            }
+
+            buffer.get(from, bytes, length, to - from);
+            length += to - from;
+        }
+
+        void flush(SpillingLineSet lines) throws IOException {
+            if (length > 0) {
+                lines.addLine(ByteBuffer.wrap(bytes), 0, length);
+            }
+
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The kernel for UTF-16 in one byte order, it walks the input one 16-bit unit at a time.
+ * Lines are the newline units, words are delimited by the same whitespace set as in the other kernels,
+ * and chars are the units minus the low surrogates that complete a pair. As the decoder does, a surrogate
+ * without its pair and an odd byte left at the end are malformed. For the merge of two ranges, the low surrogates
+ * at the head of a range stand for the leading continuation bytes of UTF-8, and any unit completes a high surrogate,
+ * so a range must start on an even offset, which the engines make sure of.
+ */
+
+final class Utf16ScanKernel implements ScanKernel {
+    private static final int ANY_BYTE_MIN = 0x00;
+    private static final int ANY_BYTE_MAX = 0xFF;
+
+    private final ByteOrder order;
+
+    Utf16ScanKernel(ByteOrder order) {
+        this.order = order;
+    }
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        int from = buffer.position(), to = buffer.limit();
+        boolean toCountChars = Metrics.has(metrics, Metrics.CHARS);
+        ByteBuffer units = buffer.duplicate().order(order);
+        int i = from;
+
+        if (from == to) {
+            return;
+        }
+
+        if (state.bytes == 0 && to - from >= Character.BYTES) {
+            state.startsInWord = !isWhitespace(units.getChar(from));
+            state.firstByte = buffer.get(from) & 0xFF;
+        }
+
+        if (state.pendingHalfUnit >= 0) {
+            byte first = (byte) state.pendingHalfUnit, second = buffer.get(i);
+            char unit = order == ByteOrder.BIG_ENDIAN
+                    ? (char) (((first & 0xFF) << 8) | (second & 0xFF))
+                    : (char) (((second & 0xFF) << 8) | (first & 0xFF));
+
+            state.pendingHalfUnit = -1;
+            countUnit(unit, state, toCountChars);
+            i += 1;
+        }
+
+        for (; to - i >= Character.BYTES; i += Character.BYTES) {
+            countUnit(units.getChar(i), state, toCountChars);
+        }
+
+        if (i < to) {
+            state.pendingHalfUnit = buffer.get(i) & 0xFF;
+        }
+
+        state.bytes += to - from;
+    }
+
+    private static void countUnit(char unit, ScanState state, boolean toCountChars) {
+        boolean whitespace = isWhitespace(unit);
+
+        state.lines += unit == '\n' ? 1 : 0;
+        state.words += whitespace || state.inWord ? 0 : 1;
+        state.inWord = !whitespace;
+
+        if (toCountChars) {
+            countCodePoint(unit, state);
+        }
+    }
+
+    private static void countCodePoint(char unit, ScanState state) {
+        if (state.pendingContinuationBytes > 0) {
+            state.pendingContinuationBytes = 0;
+
+            if (Character.isLowSurrogate(unit)) {
+                state.chars += 1;
+                return;
+            }
+
+            state.malformed += 1;
+        }
+
+        if (Character.isHighSurrogate(unit)) {
+            state.synchronizedOnUtf8 = true;
+            state.pendingContinuationBytes = 1;
+            state.nextLowerBound = ANY_BYTE_MIN;
+            state.nextUpperBound = ANY_BYTE_MAX;
+        } else if (Character.isLowSurrogate(unit)) {
+            if (state.synchronizedOnUtf8) {
+                state.malformed += 1;
+            } else {
+                state.leadingContinuationBytes += 1;
+            }
+        } else {
+            state.chars += 1;
+            state.synchronizedOnUtf8 = true;
+        }
+    }
+
+    private static boolean isWhitespace(char unit) {
+        return unit < 0x80 && ScalarScanKernel.isWhitespace((byte) unit);
+    }
+}
@@ -0,0 +1,110 @@
+package io.valentinsoare.wordtally.engine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The kernel built on the Vector API (jdk.incubator.vector), it compares 16, 32 or 64 bytes per instruction,
+ * depending on what the CPU offers, against the newline, against the whitespace set and against the UTF-8
+ * continuation and lead byte patterns, and counts the lanes of each mask with a single popcount.
+ * It is only loaded by ScanKernels when the incubator module is present in the running JVM,
+ * which means the app was started with --add-modules jdk.incubator.vector, and only created when it is worth it.
+ */
+
+final class VectorScanKernel extends WideScanKernel {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private static final VectorMask<Byte> FROM_SECOND_LANE = VectorMask.fromLong(SPECIES, ~0b1L);
+    private static final VectorMask<Byte> FROM_THIRD_LANE = VectorMask.fromLong(SPECIES, ~0b11L);
+    private static final VectorMask<Byte> FROM_FOURTH_LANE = VectorMask.fromLong(SPECIES, ~0b111L);
+
+    VectorScanKernel() {
+        super(SPECIES.length());
+    }
+
+    /**
+     * @return If the CPU offers vectors of at least 16 bytes, below that the SWAR kernel is as fast.
+     */
+    static boolean isWorthIt() {
+        return SPECIES.length() >= 16;
+    }
+
+    @Override
+    long countWindow(ByteBuffer buffer, int offset, ScanState state, boolean toCountUtf8, boolean continuing) {
+        ByteVector current = load(buffer, offset);
+        ByteVector previous = load(buffer, offset - 1);
+        long nonContinuationBytes = 0;
+
+        if (toCountUtf8) {
+            ByteVector thirdBack = load(buffer, offset - 3);
+
+            if (isAscii(current.or(thirdBack))) {
+                nonContinuationBytes = SPECIES.length();
+            } else {
+                ByteVector secondBack = load(buffer, offset - 2);
+
+                VectorMask<Byte> continuation = isContinuation(current);
+                VectorMask<Byte> previousIsContinuation = isContinuation(previous);
+
+                VectorMask<Byte> afterLead = inRange(previous, 0xC2, 0xF5);
+                VectorMask<Byte> secondAfterLead = inRange(secondBack, 0xE0, 0xF5).and(previousIsContinuation);
+                VectorMask<Byte> thirdAfterLead = inRange(thirdBack, 0xF0, 0xF5)
+                        .and(isContinuation(secondBack))
+                        .and(previousIsContinuation);
+
+                if (!continuing) {
+                    afterLead = afterLead.and(FROM_SECOND_LANE);
+                    secondAfterLead = secondAfterLead.and(FROM_THIRD_LANE);
+                    thirdAfterLead = thirdAfterLead.and(FROM_FOURTH_LANE);
+                }
+
+                VectorMask<Byte> expected = afterLead.or(secondAfterLead).or(thirdAfterLead);
+                VectorMask<Byte> outOfRangeAfterLead = previous.eq((byte) 0xE0).and(inRange(current, 0x80, 0xA0))
+                        .or(previous.eq((byte) 0xED).and(inRange(current, 0xA0, 0xC0)))
+                        .or(previous.eq((byte) 0xF0).and(inRange(current, 0x80, 0x90)))
+                        .or(previous.eq((byte) 0xF4).and(inRange(current, 0x90, 0xC0)));
+
+                if (!continuation.eq(expected).allTrue()
+                        || inRange(current, 0xC0, 0xC2).or(current.compare(VectorOperators.UNSIGNED_GE, (byte) 0xF5)).anyTrue()
+                        || outOfRangeAfterLead.anyTrue()) {
+                    return -1;
+                }
+
+                nonContinuationBytes = SPECIES.length() - continuation.trueCount();
+            }
+        }
+
+        state.lines += current.eq((byte) '\n').trueCount();
+        state.words += isWhitespace(previous).andNot(isWhitespace(current)).trueCount();
+
+        return nonContinuationBytes;
+    }
+
+    private static ByteVector load(ByteBuffer buffer, int offset) {
+        return ByteVector.fromByteBuffer(SPECIES, buffer, offset, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * With no high bit set in the window and in the LOOK_BEHIND bytes before it, there is no UTF-8 to check.
+     */
+    private static boolean isAscii(ByteVector window) {
+        return !window.compare(VectorOperators.LT, (byte) 0).anyTrue();
+    }
+
+    private static VectorMask<Byte> isWhitespace(ByteVector v) {
+        return v.eq((byte) ' ').or(v.sub((byte) '\t').compare(VectorOperators.UNSIGNED_LT, (byte) 5));
+    }
+
+    private static VectorMask<Byte> isContinuation(ByteVector v) {
+        return v.compare(VectorOperators.LT, (byte) 0xC0);
+    }
+
+    private static VectorMask<Byte> inRange(ByteVector v, int lowInclusive, int highExclusive) {
+        return v.sub((byte) lowInclusive).compare(VectorOperators.UNSIGNED_LT, (byte) (highExclusive - lowInclusive));
+    }
+}
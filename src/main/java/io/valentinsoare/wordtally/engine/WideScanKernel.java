@@ -0,0 +1,114 @@
+package io.valentinsoare.wordtally.engine;
+
+import java.nio.ByteBuffer;
+
+/***
+ * The common part of the kernels that look at a whole window of bytes at a time instead of one byte.
+ * A window is always compared with the same window shifted back by one, two and three bytes, this way
+ * a word start is a non-whitespace byte right after a whitespace one, and a continuation byte is valid only
+ * when a lead byte one, two or three positions before expects it and it is in the range allowed by that lead,
+ * which leaves the surrogates out as well. There is nothing carried between windows.
+ * The first bytes of a buffer, the windows with malformed UTF-8 and the tail are left to the scalar kernel,
+ * which has the final word on the malformed sequences, so all the kernels end up with the same counters.
+ */
+
+abstract class WideScanKernel implements ScanKernel {
+    static final int LOOK_BEHIND = 3;
+
+    private final ScalarScanKernel scalarScanKernel = new ScalarScanKernel();
+    private final int width;
+
+    WideScanKernel(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Counts the lines and words of the window starting at the offset and checks its UTF-8.
+     * When continuing is false, the bytes before the window were handled by the scalar kernel
+     * and no multibyte sequence is left open, so only the lead bytes inside the window can expect continuations.
+     *
+     * @param buffer      The bytes to be counted.
+     * @param offset      The index of the first byte of the window, there are always LOOK_BEHIND bytes before it.
+     * @param state       The counters where the lines and words are added.
+     * @param toCountUtf8 If the UTF-8 has to be checked and counted.
+     * @param continuing  If the window right before this one was counted here as well-formed UTF-8.
+     * @return The number of non-continuation bytes in the window (0 when the UTF-8 is not counted),
+     * or -1 when the window is not well-formed and the state was left untouched.
+     */
+    abstract long countWindow(ByteBuffer buffer, int offset, ScanState state, boolean toCountUtf8, boolean continuing);
+
+    @Override
+    public void scan(ByteBuffer buffer, ScanState state, int metrics) {
+        int from = buffer.position(), to = buffer.limit();
+        int i = Math.min(to, from + LOOK_BEHIND);
+        boolean toCountChars = Metrics.has(metrics, Metrics.CHARS);
+        boolean continuing = false;
+
+        scalarScanKernel.scan(buffer, from, i, state, metrics);
+
+        while (to - i >= width) {
+            if (toCountChars && !continuing
+                    && (!state.synchronizedOnUtf8 || state.pendingContinuationBytes != 0)) {
+                scalarScanKernel.scan(buffer, i, i + 1, state, metrics);
+                i += 1;
+                continue;
+            }
+
+            long nonContinuationBytes = countWindow(buffer, i, state, toCountChars, continuing);
+
+            if (nonContinuationBytes < 0) {
+                scalarScanKernel.scan(buffer, i, i + width, state, metrics);
+                continuing = false;
+            } else {
+                if (toCountChars) {
+                    boolean carriedIn = state.pendingContinuationBytes > 0;
+                    openSequenceAt(buffer, i + width, state);
+
+                    state.chars += nonContinuationBytes
+                            + (carriedIn ? 1 : 0)
+                            - (state.pendingContinuationBytes > 0 ? 1 : 0);
+                }
+
+                state.inWord = !ScalarScanKernel.isWhitespace(buffer.get(i + width - 1));
+                state.bytes += width;
+                continuing = true;
+            }
+
+            i += width;
+        }
+
+        scalarScanKernel.scan(buffer, i, to, state, metrics);
+    }
+
+    /**
+     * Finds how many continuation bytes the last sequence before the end still needs, and which range
+     * the next byte must be in, knowing that the bytes before the end are well-formed.
+     */
+    private static void openSequenceAt(ByteBuffer buffer, int end, ScanState state) {
+        state.pendingContinuationBytes = 0;
+        state.nextLowerBound = ScalarScanKernel.CONTINUATION_MIN;
+        state.nextUpperBound = ScalarScanKernel.CONTINUATION_MAX;
+        state.nextSurrogateFrom = ScalarScanKernel.NO_SURROGATE;
+        state.pendingSurrogate = false;
+
+        for (int back = 1; back <= LOOK_BEHIND; back++) {
+            int b = buffer.get(end - back) & 0xFF;
+
+            if (b < 0x80) {
+                return;
+            }
+
+            if (b > ScalarScanKernel.CONTINUATION_MAX) {
+                state.pendingContinuationBytes = Math.max(0, ScalarScanKernel.continuationBytesAfter(b) + 1 - back);
+
+                if (back == 1) {
+                    state.nextLowerBound = ScalarScanKernel.lowerBoundAfter(b);
+                    state.nextUpperBound = ScalarScanKernel.upperBoundAfter(b);
+                    state.nextSurrogateFrom = ScalarScanKernel.surrogateFromAfter(b);
+                }
+
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/***
+ * Here we count the entries of a zip or jar archive without extracting them to the disk.
+ * The central directory of the archive lists all the entries up front and a ZipFile reads any of them
+ * at any time, from any thread, so the entries are counted in parallel, each one in a single pass over
+ * its inflated stream, as the FusedScanEngine does for a file. Only the text entries are counted:
+ * the directories are skipped and so is any entry with a NUL in its first chunk, which is how grep and git
+ * tell a binary file, except in UTF-16 where the NULs are part of the text.
+ */
+
+@Component
+public class ZipScanEngine {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public ZipScanEngine() {}
+
+    /**
+     * @return If the file starts with the signature of a zip local header, or of an empty zip.
+     */
+    public static boolean isZip(Path inputFile) throws IOException {
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            byte[] signature = in.readNBytes(4);
+
+            return signature.length == 4 && signature[0] == 'P' && signature[1] == 'K'
+                    && ((signature[2] == 3 && signature[3] == 4) || (signature[2] == 5 && signature[3] == 6));
+        }
+    }
+
+    /**
+     * Counts every text entry of the archive, in parallel.
+     *
+     * @param archive  The zip or jar file.
+     * @param settings The requested counters, the encoding and the policy for the malformed sequences.
+     * @return The counters of the text entries, in the order of the central directory.
+     * @throws IOException If the archive or an entry cannot be read, or an entry is malformed and the policy is REPORT.
+     */
+    public List<EntryCount> scan(Path archive, ScanSettings settings) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            List<? extends ZipEntry> entries = zipFile.stream()
+                    .filter(e -> !e.isDirectory())
+                    .toList();
+
+            return entries.parallelStream()
+                    .map(e -> countEntry(zipFile, e, settings))
+                    .filter(Objects::nonNull)
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return The counters of the entry, null when it is binary.
+     */
+    private EntryCount countEntry(ZipFile zipFile, ZipEntry entry, ScanSettings settings) {
+        ScanState state = new ScanState();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        ScanKernel kernel = null;
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            int readBytes;
+
+            while ((readBytes = in.readNBytes(buffer.array(), 0, BUFFER_SIZE)) > 0) {
+                buffer.clear().limit(readBytes);
+
+                if (kernel == null) {
+                    if (settings.encoding().isBinary(buffer)) {
+                        return null;
+                    }
+
+                    kernel = ScanKernels.forInput(settings, buffer, state);
+                }
+
+                kernel.scan(buffer, state, settings.metrics());
+            }
+
+            return new EntryCount(entry.getName(), state.toResult(settings));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,6 +1,17 @@
 package io.valentinsoare.wordtally.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.EntryCount;
+import io.valentinsoare.wordtally.engine.MalformedInputPolicy;
+import io.valentinsoare.wordtally.engine.PatternAutomaton;
+import io.valentinsoare.wordtally.engine.Metrics;
+import io.valentinsoare.wordtally.engine.ScanSettings;
+import io.valentinsoare.wordtally.engine.TarScanEngine;
+import io.valentinsoare.wordtally.engine.TextEncoding;
+import io.valentinsoare.wordtally.engine.TokenCount;
+import io.valentinsoare.wordtally.engine.UniqueLinesEngine;
+import io.valentinsoare.wordtally.engine.ZipScanEngine;
 import io.valentinsoare.wordtally.exception.ErrorMessage;
 import io.valentinsoare.wordtally.exception.Severity;
 import io.valentinsoare.wordtally.outputformat.OutputFormat;
@@ -9,12 +20,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 /***
  * This class is tagged as a service and injected into the runner and
@@ -27,15 +40,20 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
     private final OutputFormat outputFormat;
     private final ParsingAsAService parsingAsAService;
     private final ProcessingAsAService processingAsAService;
+    private final TallyingAsAService tallyingAsAService;
+    private static final int MAX_FILES_IN_FLIGHT = Math.min(256, 2 * Runtime.getRuntime().availableProcessors());
+
     private Options requiredOptions;
 
     @Autowired
     private ActOnInputOptionsProcessingAsAService(OutputFormat outputFormat,
                                                  ParsingAsAService parsingAsAService,
-                                                 ProcessingAsAService processingAsAService) {
+                                                 ProcessingAsAService processingAsAService,
+                                                 TallyingAsAService tallyingAsAService) {
         this.outputFormat = outputFormat;
         this.parsingAsAService = parsingAsAService;
         this.processingAsAService = processingAsAService;
+        this.tallyingAsAService = tallyingAsAService;
 
         prepareOptionsAvailable();
     }
@@ -47,12 +65,69 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
         Option words = createOption("w", "words", "print the word counts");
         Option chars = createOption("m", "chars", "print the character counts");
         Option bytes = createOption("c", "bytes", "print the byte counts");
+        Option maxLineLength = createOption("L", "max-line-length", "print the maximum display width");
+        Option distinctWords = createOption(null, "distinct-words", "print the estimated number of distinct words, within 1%");
+        Option malformed = createOptionWithArgument("malformed", "POLICY",
+                "what -m does with malformed UTF-8: replace (default, one char per malformed sequence), ignore or report");
+        Option encoding = createOptionWithArgument("encoding", "CHARSET",
+                "the encoding of the input: UTF-8 (default), UTF-16, UTF-16LE, UTF-16BE, ISO-8859-1 or locale for the one of the platform");
+        Option entropy = createOption(null, "entropy", "print the Shannon entropy of the bytes, in bits per byte");
+        Option histogram = createOption(null, "histogram",
+                "print how many times every byte value occurs, one line per byte found, before the other counts");
+        Option lineStats = createOption(null, "line-stats",
+                "print the min, mean, p50, p95, p99 and max line length in bytes, the percentiles within 3%");
+        Option countPattern = createOptionWithArgument("count-pattern", "PATTERN",
+                "print the occurrences of PATTERN as one more column, it can be given more than once");
+        Option patternsFile = createOptionWithArgument("patterns-file", "FILE",
+                "print the occurrences of every line of FILE as one more column each, after the --count-pattern ones");
+        Option tally = createOption(null, "tally", "print every word with the number of times it occurs, the most frequent first");
+        Option topK = createOptionWithArgument("top-k", "N", "with --tally, print only the N most frequent words");
+        Option ngrams = createOptionWithArgument("ngrams", "N",
+                "tally the runs of N words in a row instead of the words, with --tally or --top-k");
+        Option approx = createOption(null, "approx",
+                "with --top-k, find the N most frequent words in a fixed memory, printing with every count the most it can be over");
+        Option uniqueLines = createOption(null, "unique-lines", "print the exact number of distinct lines, like sort -u | wc -l");
+        Option bufferSize = createOptionWithArgument("buffer-size", "SIZE",
+                "with --unique-lines, the memory for the distinct lines before they spill to disk, like sort -S: a number of KiB or with a suffix b, K, M, G or %");
+        Option files0From = createOptionWithArgument("files0-from", "F",
+                "read the input from the files named in F, each name ending with a NUL; if F is - read the names from the standard input");
+        Option recursive = createOption("r", "recursive",
+                "count all the files under the given directories, walking their trees in parallel as the counting goes");
+        Option include = createOptionWithArgument("include", "GLOB",
+                "with -r, count only the files matching GLOB, on the name or, with a slash, on the path, it can be given more than once");
+        Option exclude = createOptionWithArgument("exclude", "GLOB",
+                "with -r, skip the files and the whole directories matching GLOB, it can be given more than once");
+        Option gitignore = createOption(null, "gitignore",
+                "with -r, skip what the .gitignore files found in the walked directories ignore, and the .git directories");
+        Option archive = createOption(null, "archive",
+                "count every text entry of the zip, jar, tar and tar.gz files, printed as ARCHIVE!ENTRY, and a subtotal for each archive");
         Option help = createOption("h", "help", "print the help page");
 
         requiredOptions.addOption(lines)
                 .addOption(words)
                 .addOption(chars)
                 .addOption(bytes)
+                .addOption(maxLineLength)
+                .addOption(distinctWords)
+                .addOption(malformed)
+                .addOption(encoding)
+                .addOption(entropy)
+                .addOption(histogram)
+                .addOption(lineStats)
+                .addOption(countPattern)
+                .addOption(patternsFile)
+                .addOption(tally)
+                .addOption(topK)
+                .addOption(ngrams)
+                .addOption(approx)
+                .addOption(uniqueLines)
+                .addOption(bufferSize)
+                .addOption(files0From)
+                .addOption(recursive)
+                .addOption(include)
+                .addOption(exclude)
+                .addOption(gitignore)
+                .addOption(archive)
                 .addOption(help);
     }
 
@@ -65,6 +140,17 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
                 .build();
     }
 
+    private Option createOptionWithArgument(String longName, String argumentName,
+                                            String description) {
+        return Option.builder()
+                .longOpt(longName)
+                .hasArg()
+                .argName(argumentName)
+                .desc(description)
+                .required(false)
+                .build();
+    }
+
     @Override
     public void printHelp(Options options) {
         HelpFormatter helpFormatter = new HelpFormatter();
@@ -95,6 +181,10 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
             for (Option o : requiredOptions.getOptions()) {
                 if (commandLine.hasOption(o)) {
                     optionsFromUser.add(o.getLongOpt());
+
+                    if (o.hasArg()) {
+                        optionsAndLocationsFromUser.put(o.getLongOpt(), List.of(commandLine.getOptionValues(o)));
+                    }
                 }
             }
 
@@ -124,20 +214,44 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
 
     @Override
     public List<String> checkFilesAvailability(List<String> locations) {
-        List<String> availableFiles = new ArrayList<>();
+        return locations.parallelStream()
+                .filter(f -> {
+                    if (Files.notExists(Path.of(f))) {
+                        System.out.printf("wordtally: %s: No such file or directory%n", f);
+                        return false;
+                    }
+
+                    return true;
+                })
+                .toList();
+    }
 
-        locations.parallelStream().forEach(f -> {
-            if (Files.notExists(Path.of(f))) {
-                System.out.printf("wordtally: %s: No such file or directory%n", f);
-            } else {
-                availableFiles.add(f);
-            }
-        });
+    /**
+     * Prints the byte values found in the input, in their order, each one with its count, in hex and with the file name.
+     */
+    private void printHistogram(CountResult result, String fileToPrint, int metrics) {
+        if (!Metrics.has(metrics, Metrics.HISTOGRAM)) {
+            return;
+        }
+
+        long[] histogram = result.byteHistogram();
 
-        return availableFiles;
+        if (histogram == null) {
+            return;
+        }
+
+        for (int b = 0; b < histogram.length; b++) {
+            if (histogram[b] > 0) {
+                System.out.printf("%-7s 0x%02x%s%n", histogram[b], b, fileToPrint == null ? "" : " " + fileToPrint);
+            }
+        }
     }
 
-    private void constructOutputToPrint(List<Long> results, String fileToPrint, boolean toPrintLocation) {
+    private void constructOutputToPrint(List<Number> results, String fileToPrint, boolean toPrintLocation) {
+        if (results.isEmpty()) {
+            return;
+        }
+
         results.forEach(e -> System.out.printf("%-7s", e));
 
         if (toPrintLocation) {
@@ -147,15 +261,19 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
         }
     }
 
-    private void calculateTotalIfMultipleFilesAndPrint(List<List<Long>> givenValuesFromCounter, int nCol) {
-        List<Long> calcTotal = new ArrayList<>(givenValuesFromCounter.get(0));
+    private void calculateTotalIfMultipleFilesAndPrint(Collection<CountResult> givenValuesFromCounter, int metrics) {
+        CountResult calcTotal = givenValuesFromCounter.stream()
+                .reduce(CountResult.EMPTY, CountResult::plus);
+
+        List<Number> columns = calcTotal.columns(metrics);
 
-        for (int j = 1; j < givenValuesFromCounter.size(); j++) {
-            for (int i = 0; i < nCol; i++)
-                calcTotal.set(i, givenValuesFromCounter.get(j).get(i) + calcTotal.get(i));
+        printHistogram(calcTotal, "total", metrics);
+
+        if (columns.isEmpty()) {
+            return;
         }
 
-        calcTotal.forEach(e -> System.out.printf("%-7s", e));
+        columns.forEach(e -> System.out.printf("%-7s", e));
         System.out.printf("%-7s%n", "total");
     }
 
@@ -163,73 +281,524 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
     public void runTasksFromInput(String[] arguments, InputStream inputStream) {
         Map<String, List<String>> tasksAndFiles = extractTypeOfTasksAndLocationsFromInput(arguments);
         List<String> options = tasksAndFiles.get("options"), locations = tasksAndFiles.get("locations");
-        Map<String, CompletableFuture<List<Long>>> results = new HashMap<>();
 
-        if (!locations.isEmpty()) {
-            List<String> filesToBeProcess = checkFilesAvailability(locations);
+        if (options.contains("help")) {
+            printHelp(requiredOptions);
+        }
 
-            for (String f : filesToBeProcess) {
-                Path file = Path.of(f);
+        if (options.contains("tally") || options.contains("top-k") || options.contains("ngrams")
+                || options.contains("approx")) {
+            runTally(tasksAndFiles, inputStream);
+            return;
+        }
+
+        if (options.contains("unique-lines")) {
+            runUniqueLines(tasksAndFiles, inputStream);
+            return;
+        }
 
-                CompletableFuture<List<Long>> cfT =
-                        CompletableFuture.supplyAsync(() -> executeTasks(options, file));
-                results.put(file.toString(), cfT);
+        ScanSettings settings = prepareScanSettings(tasksAndFiles);
+        int metrics = settings.metrics();
+
+        if (tasksAndFiles.containsKey("files0-from")) {
+            countTheFilesInOrder(walkTheDirectories(openTheFileNames(tasksAndFiles, inputStream), tasksAndFiles),
+                    tasksAndFiles.get("files0-from").get(0), settings, options.contains("archive"));
+        } else if (!locations.isEmpty()) {
+            countTheFilesInOrder(walkTheDirectories(locations.iterator(), tasksAndFiles), null, settings,
+                    options.contains("archive"));
+        } else {
+            catchCheckTheReaderException(inputStream);
+
+            if (Metrics.has(metrics, Metrics.HISTOGRAM)) {
+                CountResult r = processingAsAService.countTheInput(settings, inputStream);
+
+                if (r != null) {
+                    printHistogram(r, null, metrics);
+                    constructOutputToPrint(r.columns(metrics), null, false);
+                }
+            } else {
+                List<Number> r = processingAsAService.execTheTasksWithCountingInParallelWithParallelStreams(settings, inputStream);
+                constructOutputToPrint(r, null, false);
+            }
+        }
+
+    }
+
+    /**
+     * Counts the files as their names come, a few of them at a time on the pool of the async tasks, and prints
+     * every one in the order the names were given, as soon as it and all the ones before it are done.
+     * Only the files in flight are kept, the total being summed as the results are printed,
+     * so the names can keep coming from a pipe without the list ever being held in memory.
+     * The files that cannot be counted are reported in their place, between the results of their neighbours,
+     * and so are the errors the walk of -r meets, which come in the place of a name.
+     *
+     * @param names        The names of the files, read as the counting goes.
+     * @param namesSource  The file the names are read from, null when they are the operands.
+     * @param settings     The counters and the encoding.
+     * @param openArchives If the zip and jar files are counted entry by entry.
+     */
+    private void countTheFilesInOrder(Iterator<String> names, String namesSource, ScanSettings settings,
+                                      boolean openArchives) {
+        int metrics = settings.metrics(), numberOfFiles = 0;
+        Deque<PendingFile> inFlight = new ArrayDeque<>();
+        CountResult total = CountResult.EMPTY;
+
+        try {
+            while (names.hasNext()) {
+                String f = names.next();
+                String walkError = RecursiveFileNames.errorIn(f);
+
+                if (inFlight.size() == MAX_FILES_IN_FLIGHT) {
+                    total = printTheResultOf(inFlight.removeFirst(), total, metrics);
+                }
+
+                if (walkError != null) {
+                    inFlight.addLast(new PendingFile(f, null, null, walkError));
+                    continue;
+                }
+
+                numberOfFiles++;
+                inFlight.addLast(submitTheFile(f, numberOfFiles, namesSource, settings, openArchives));
             }
+        } catch (UncheckedIOException e) {
+            handleTheFileNamesException(e.getCause());
+        }
+
+        while (!inFlight.isEmpty()) {
+            total = printTheResultOf(inFlight.removeFirst(), total, metrics);
+        }
+
+        if (numberOfFiles > 1) {
+            calculateTotalIfMultipleFilesAndPrint(List.of(total), metrics);
+        }
+    }
+
+    private PendingFile submitTheFile(String f, int index, String namesSource, ScanSettings settings,
+                                      boolean openArchives) {
+        if (f.isEmpty() && namesSource != null) {
+            return new PendingFile(f, null, null, String.format("wordtally: %s:%d: invalid zero-length file name", namesSource, index));
+        }
+
+        if (f.isEmpty() || Files.notExists(Path.of(f))) {
+            return new PendingFile(f, null, null, String.format("wordtally: %s: No such file or directory", f));
+        }
+
+        if (Files.isDirectory(Path.of(f))) {
+            return new PendingFile(f, null, null, String.format("wordtally: %s: Is a directory", f));
+        }
+
+        if (openArchives && isArchive(Path.of(f))) {
+            return new PendingFile(f, null, parsingAsAService.countTheArchive(Path.of(f), settings), null);
+        }
+
+        return new PendingFile(f, parsingAsAService.countInOnePass(Path.of(f), settings), null, null);
+    }
+
+    private static boolean isArchive(Path file) {
+        try {
+            return ZipScanEngine.isZip(file) || TarScanEngine.isTar(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private CountResult printTheResultOf(PendingFile pending, CountResult total, int metrics) {
+        if (pending.error() != null) {
+            System.out.printf("%s%n", pending.error());
+            return total;
+        }
+
+        if (pending.entries() != null) {
+            return printTheEntriesOf(pending, total, metrics);
+        }
+
+        CountResult r = pending.result().join();
+
+        if (r == null) {
+            return total;
+        }
+
+        printHistogram(r, pending.name(), metrics);
+        constructOutputToPrint(r.columns(metrics), pending.name(), true);
+
+        return total.plus(r);
+    }
+
+    /**
+     * Prints every text entry of an archive as ARCHIVE!ENTRY, then the subtotal of the archive under its own name.
+     */
+    private CountResult printTheEntriesOf(PendingFile pending, CountResult total, int metrics) {
+        List<EntryCount> entries = pending.entries().join();
+
+        if (entries == null) {
+            return total;
+        }
 
-            Map<String, List<Long>> rs = CompletableFuture.allOf(results.values().toArray(e -> new CompletableFuture[]{}))
-                    .thenApplyAsync(w -> results.entrySet().stream()
-                            .collect(Collectors.toMap(Map.Entry::getKey, v -> v.getValue().join()))).join();
+        CountResult subtotal = CountResult.EMPTY;
 
-            for (Map.Entry<String, List<Long>> e : rs.entrySet()) {
-                constructOutputToPrint(e.getValue(), e.getKey(), true);
+        for (EntryCount e : entries) {
+            String name = String.format("%s!%s", pending.name(), e.name());
+
+            printHistogram(e.result(), name, metrics);
+            constructOutputToPrint(e.result().columns(metrics), name, true);
+            subtotal = subtotal.plus(e.result());
+        }
+
+        printHistogram(subtotal, pending.name(), metrics);
+        constructOutputToPrint(subtotal.columns(metrics), pending.name(), true);
+
+        return total.plus(subtotal);
+    }
+
+    /**
+     * Opens the stream of the names given with --files0-from, the standard input for -, and checks
+     * the names do not come together with file operands, like wc does.
+     */
+    private Iterator<String> openTheFileNames(Map<String, List<String>> tasksAndFiles, InputStream inputStream) {
+        List<String> locations = tasksAndFiles.get("locations");
+        String namesSource = tasksAndFiles.get("files0-from").get(0);
+
+        if (!locations.isEmpty()) {
+            System.out.printf("wordtally: extra operand '%s'%nfile operands cannot be combined with --files0-from%nTry 'wordtally -h|--help' for more information.%n",
+                    locations.get(0));
+            System.exit(0);
+        }
+
+        if (namesSource.equals("-")) {
+            return new NulSeparatedNames(inputStream);
+        }
+
+        try {
+            return new NulSeparatedNames(new BufferedInputStream(Files.newInputStream(Path.of(namesSource))));
+        } catch (IOException e) {
+            System.out.printf("wordtally: cannot open '%s' for reading: No such file or directory%n", namesSource);
+            System.exit(0);
+            return null;
+        }
+    }
+
+    /**
+     * @return The names with the directories replaced by the files of their trees, with -r, or the names as they are.
+     */
+    private Iterator<String> walkTheDirectories(Iterator<String> names, Map<String, List<String>> tasksAndFiles) {
+        if (!tasksAndFiles.get("options").contains("recursive")) {
+            return names;
+        }
+
+        return new RecursiveFileNames(names, prepareWalkFilter(tasksAndFiles));
+    }
+
+    private WalkFilter prepareWalkFilter(Map<String, List<String>> tasksAndFiles) {
+        List<String> includes = tasksAndFiles.getOrDefault("include", List.of());
+        List<String> excludes = tasksAndFiles.getOrDefault("exclude", List.of());
+
+        for (String optionName : List.of("include", "exclude")) {
+            for (String glob : tasksAndFiles.getOrDefault(optionName, List.of())) {
+                try {
+                    WalkFilter.of(List.of(glob), List.of(), false);
+                } catch (IllegalArgumentException e) {
+                    System.out.printf("wordtally: invalid argument '%s' for '--%s'%nThe argument must be a valid glob%nTry 'wordtally -h|--help' for more information.%n",
+                            glob, optionName);
+                    System.exit(0);
+                }
             }
+        }
+
+        return WalkFilter.of(includes, excludes, tasksAndFiles.get("options").contains("gitignore"));
+    }
+
+    /**
+     * @return The files to be counted, the ones given as operands or all the names of --files0-from,
+     * for the modes that need the whole list before they start.
+     */
+    private List<String> collectTheLocations(Map<String, List<String>> tasksAndFiles, InputStream inputStream) {
+        List<String> options = tasksAndFiles.get("options");
+
+        if (!tasksAndFiles.containsKey("files0-from") && !options.contains("recursive")) {
+            return tasksAndFiles.get("locations");
+        }
+
+        List<String> names = new ArrayList<>();
+
+        try {
+            Iterator<String> given = tasksAndFiles.containsKey("files0-from")
+                    ? openTheFileNames(tasksAndFiles, inputStream)
+                    : tasksAndFiles.get("locations").iterator();
 
-            if (locations.size() > 1) {
-                calculateTotalIfMultipleFilesAndPrint(
-                        new ArrayList<>(rs.values()),
-                        options.isEmpty() ? 3 : options.size()
-                );
+            walkTheDirectories(given, tasksAndFiles).forEachRemaining(names::add);
+        } catch (UncheckedIOException e) {
+            handleTheFileNamesException(e.getCause());
+        }
+
+        return names.stream().filter(f -> !f.isEmpty()).toList();
+    }
+
+    private void handleTheFileNamesException(IOException e) {
+        ErrorMessage msg = ErrorMessage.builder()
+                .threadName(Thread.currentThread().getName())
+                .clazzName(this.getClass().getName())
+                .message(e.getMessage())
+                .severity(Severity.ERROR)
+                .methodName("openTheFileNames")
+                .dateTime(Instant.now().toString())
+                .build();
+
+        try {
+            System.out.printf("%s %n", outputFormat.withJSONStyle().writeValueAsString(msg));
+        } catch (JsonProcessingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void runTally(Map<String, List<String>> tasksAndFiles, InputStream inputStream) {
+        Integer topK = parseArgument(tasksAndFiles, "top-k", ActOnInputOptionsProcessingAsAService::parsePositive,
+                "The argument must be a positive number");
+        Integer ngramSize = parseArgument(tasksAndFiles, "ngrams", ActOnInputOptionsProcessingAsAService::parsePositive,
+                "The argument must be a positive number");
+        int k = topK == null ? Integer.MAX_VALUE : topK, n = ngramSize == null ? 1 : ngramSize;
+        boolean approximate = tasksAndFiles.get("options").contains("approx");
+        List<TokenCount> tallied;
+
+        if (approximate && topK == null) {
+            System.out.printf("wordtally: '--approx' needs '--top-k'%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        TextEncoding encoding = parseArgument(tasksAndFiles, "encoding", TextEncoding::fromName,
+                "Valid arguments are: 'UTF-8', 'UTF-16', 'UTF-16LE', 'UTF-16BE', 'ISO-8859-1', 'locale'");
+
+        if (EnumSet.of(TextEncoding.UTF_16, TextEncoding.UTF_16BE, TextEncoding.UTF_16LE).contains(encoding)) {
+            System.out.printf("wordtally: the words cannot be tallied in a UTF-16 encoding%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        Charset charset = charsetOfTheInput(tasksAndFiles);
+        List<String> locations = collectTheLocations(tasksAndFiles, inputStream);
+
+        if (!tasksAndFiles.get("locations").isEmpty() || tasksAndFiles.containsKey("files0-from")) {
+            List<Path> inputFiles = checkFilesAvailability(locations).stream().map(Path::of).toList();
+
+            tallied = approximate
+                    ? tallyingAsAService.tallyHeavyHitters(inputFiles, n, k, charset)
+                    : tallyingAsAService.tallyTheWords(inputFiles, n, k, charset);
+        } else {
+            catchCheckTheReaderException(inputStream);
+            tallied = approximate
+                    ? tallyingAsAService.tallyHeavyHitters(inputStream, n, k, charset)
+                    : tallyingAsAService.tallyTheWords(inputStream, n, k, charset);
+        }
+
+        PrintWriter printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+
+        StringBuilder line = new StringBuilder();
+
+        for (TokenCount t : tallied) {
+            line.setLength(0);
+            line.append(t.count());
+            line.append(" ".repeat(Math.max(0, 7 - line.length()))).append(' ');
+
+            if (approximate) {
+                int start = line.length();
+                line.append(t.error());
+                line.append(" ".repeat(Math.max(0, 7 - (line.length() - start)))).append(' ');
             }
+
+            line.append(t.token());
+            printWriter.println(line);
+        }
+
+        printWriter.flush();
+    }
+
+    private void runUniqueLines(Map<String, List<String>> tasksAndFiles, InputStream inputStream) {
+        Long bufferSize = parseArgument(tasksAndFiles, "buffer-size", ActOnInputOptionsProcessingAsAService::parseSize,
+                "The argument must be a positive size, e.g. 512M, 2G or 25%");
+        long memoryBudget = bufferSize == null ? UniqueLinesEngine.DEFAULT_MEMORY_BUDGET : bufferSize;
+        TextEncoding encoding = parseArgument(tasksAndFiles, "encoding", TextEncoding::fromName,
+                "Valid arguments are: 'UTF-8', 'UTF-16', 'UTF-16LE', 'UTF-16BE', 'ISO-8859-1', 'locale'");
+
+        if (EnumSet.of(TextEncoding.UTF_16, TextEncoding.UTF_16BE, TextEncoding.UTF_16LE).contains(encoding)) {
+            System.out.printf("wordtally: '--unique-lines' cannot be used with a UTF-16 encoding%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        List<String> locations = collectTheLocations(tasksAndFiles, inputStream);
+        long uniqueLines;
+
+        if (!tasksAndFiles.get("locations").isEmpty() || tasksAndFiles.containsKey("files0-from")) {
+            uniqueLines = parsingAsAService.countUniqueLines(
+                    checkFilesAvailability(locations).stream().map(Path::of).toList(), memoryBudget);
         } else {
-            options.forEach(e -> {
-                if ("help".equals(e)) {
-                    printHelp(requiredOptions);
+            catchCheckTheReaderException(inputStream);
+            uniqueLines = processingAsAService.countUniqueLines(inputStream, memoryBudget);
+        }
+
+        if (uniqueLines >= 0) {
+            constructOutputToPrint(List.of(uniqueLines), null, false);
+        }
+    }
+
+    /**
+     * Reads a size the way sort -S does, KiB by default, b for bytes, K, M, G for the binary multiples
+     * and % for a share of the heap.
+     */
+    private static long parseSize(String argument) {
+        String size = argument.trim();
+        char suffix = size.isEmpty() ? ' ' : Character.toUpperCase(size.charAt(size.length() - 1));
+        String digits = Character.isDigit(suffix) ? size : size.substring(0, size.length() - 1);
+        long value = Long.parseLong(digits);
+
+        long bytes = switch (suffix) {
+            case 'B' -> value;
+            case 'M' -> value << 20;
+            case 'G' -> value << 30;
+            case '%' -> Runtime.getRuntime().maxMemory() / 100 * value;
+            default -> {
+                if (suffix != 'K' && !Character.isDigit(suffix)) {
+                    throw new IllegalArgumentException(String.format("invalid suffix in '%s'", argument));
                 }
-            });
 
-            catchCheckTheReaderException(inputStream);
+                yield value << 10;
+            }
+        };
+
+        if (value <= 0 || (suffix == '%' && value > 100)) {
+            throw new IllegalArgumentException(String.format("'%s' is not a valid size", argument));
+        }
 
-            List<Long> r = processingAsAService.execTheTasksWithCountingInParallelWithParallelStreams(options, inputStream);
-            constructOutputToPrint(r, null, false);
+        return bytes;
+    }
+
+    private static int parsePositive(String argument) {
+        int value = Integer.parseInt(argument.trim());
+
+        if (value <= 0) {
+            throw new IllegalArgumentException(String.format("'%s' is not positive", argument));
         }
 
+        return value;
     }
 
     @Override
-    public List<Long> executeTasks(List<String> options, Path inputFile) {
-        List<CompletableFuture<Long>> allCFs = new ArrayList<>();
-
-        if (options.isEmpty()) {
-            allCFs.addAll(Arrays.asList(
-                    parsingAsAService.countTheNumberOfLines(inputFile),
-                    parsingAsAService.countTheNumberOfWords(inputFile),
-                    parsingAsAService.countTheNumberOfBytes(inputFile)));
-        } else {
-            for (String s : options) {
-                switch (s) {
-                    case "help" -> printHelp(requiredOptions);
-                    case "lines" -> allCFs.add(parsingAsAService.countTheNumberOfLines(inputFile));
-                    case "words" -> allCFs.add(parsingAsAService.countTheNumberOfWords(inputFile));
-                    case "chars" -> allCFs.add(parsingAsAService.countTheNumberOfChars(inputFile));
-                    case "bytes" -> allCFs.add(parsingAsAService.countTheNumberOfBytes(inputFile));
+    public CountResult executeTasks(ScanSettings settings, Path inputFile) {
+        return parsingAsAService.countInOnePass(inputFile, settings).join();
+    }
+
+    private ScanSettings prepareScanSettings(Map<String, List<String>> tasksAndFiles) {
+        ScanSettings settings = ScanSettings.builder()
+                .metrics(Metrics.fromOptionNames(tasksAndFiles.get("options")))
+                .malformedInputPolicy(parseArgument(tasksAndFiles, "malformed", MalformedInputPolicy::fromName,
+                        "Valid arguments are: 'replace', 'ignore', 'report'"))
+                .encoding(parseArgument(tasksAndFiles, "encoding", TextEncoding::fromName,
+                        "Valid arguments are: 'UTF-8', 'UTF-16', 'UTF-16LE', 'UTF-16BE', 'ISO-8859-1', 'locale'"))
+                .build();
+
+        boolean isUtf16 = EnumSet.of(TextEncoding.UTF_16, TextEncoding.UTF_16BE, TextEncoding.UTF_16LE)
+                .contains(settings.encoding());
+
+        if (isUtf16 && Metrics.has(settings.metrics(), Metrics.DISTINCT_WORDS)) {
+            System.out.printf("wordtally: '--distinct-words' cannot be used with a UTF-16 encoding%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        if (isUtf16 && Metrics.has(settings.metrics(), Metrics.PATTERNS)) {
+            System.out.printf("wordtally: the patterns cannot be counted in a UTF-16 encoding%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        if (isUtf16 && Metrics.has(settings.metrics(), Metrics.LINE_STATS)) {
+            System.out.printf("wordtally: '--line-stats' cannot be used with a UTF-16 encoding%nTry 'wordtally -h|--help' for more information.%n");
+            System.exit(0);
+        }
+
+        if (Metrics.has(settings.metrics(), Metrics.PATTERNS)) {
+            settings = settings.toBuilder().patterns(preparePatterns(tasksAndFiles)).build();
+        }
+
+        return settings;
+    }
+
+    /**
+     * The patterns from the command line are matched as their bytes in the charset of '--encoding', UTF-8 by default,
+     * the lines of the patterns file as they are in the file, without the newline, the empty ones being skipped,
+     * like grep -F -f does.
+     */
+    private PatternAutomaton preparePatterns(Map<String, List<String>> tasksAndFiles) {
+        List<byte[]> patterns = new ArrayList<>();
+        Charset charset = charsetOfTheInput(tasksAndFiles);
+
+        for (String p : tasksAndFiles.getOrDefault("count-pattern", List.of())) {
+            if (p.isEmpty()) {
+                System.out.printf("wordtally: invalid argument '' for '--count-pattern'%nThe pattern cannot be empty%nTry 'wordtally -h|--help' for more information.%n");
+                System.exit(0);
+            }
+
+            if (!charset.newEncoder().canEncode(p)) {
+                System.out.printf("wordtally: invalid argument '%s' for '--count-pattern'%nThe pattern cannot be written in %s%nTry 'wordtally -h|--help' for more information.%n",
+                        p, charset.name());
+                System.exit(0);
+            }
+
+            patterns.add(p.getBytes(charset));
+        }
+
+        for (String f : tasksAndFiles.getOrDefault("patterns-file", List.of())) {
+            byte[] content = null;
+
+            try {
+                content = Files.readAllBytes(Path.of(f));
+            } catch (IOException e) {
+                System.out.printf("wordtally: %s: No such file or directory%n", f);
+                System.exit(0);
+            }
+
+            int start = 0;
+
+            for (int i = 0; i <= content.length; i++) {
+                if (i == content.length || content[i] == '\n') {
+                    if (i > start) {
+                        patterns.add(Arrays.copyOfRange(content, start, i));
+                    }
+
+                    start = i + 1;
                 }
             }
         }
 
-        return CompletableFuture.allOf(allCFs.toArray(e -> new CompletableFuture[]{}))
-                .thenApply(v -> allCFs.stream()
-                        .map(CompletableFuture::join)
-                        .toList()).join();
+        return PatternAutomaton.compile(patterns);
+    }
+
+    /**
+     * @return The charset named by '--encoding', already checked by the time it is asked for, or UTF-8.
+     */
+    private static Charset charsetOfTheInput(Map<String, List<String>> tasksAndFiles) {
+        List<String> encoding = tasksAndFiles.get("encoding");
+
+        if (encoding == null) {
+            return StandardCharsets.UTF_8;
+        }
+
+        String name = encoding.get(0).trim();
+
+        return TextEncoding.PLATFORM_LOCALE.equalsIgnoreCase(name) ? Charset.defaultCharset() : Charset.forName(name);
+    }
+
+    private <T> T parseArgument(Map<String, List<String>> tasksAndFiles, String optionName,
+                                Function<String, T> parser, String validArguments) {
+        List<String> argument = tasksAndFiles.get(optionName);
+
+        if (argument == null) {
+            return null;
+        }
+
+        try {
+            return parser.apply(argument.get(0));
+        } catch (IllegalArgumentException e) {
+            System.out.printf("wordtally: invalid argument '%s' for '--%s'%n%s%nTry 'wordtally -h|--help' for more information.%n",
+                    argument.get(0), optionName, validArguments);
+            System.exit(0);
+            return null;
+        }
     }
 
     private void catchCheckTheReaderException(InputStream inputStream) {
@@ -257,4 +826,11 @@ public class ActOnInputOptionsProcessingAsAService implements InputOptionsAsArgu
             System.exit(0);
         }
     }
+
+    /**
+     * A file handed to the pool and not printed yet, with its result or the ones of its entries for an archive,
+     * or the error to be printed in its place.
+     */
+    private record PendingFile(String name, CompletableFuture<CountResult> result,
+                               CompletableFuture<List<EntryCount>> entries, String error) {}
 }
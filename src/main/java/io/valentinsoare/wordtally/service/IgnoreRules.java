@@ -0,0 +1,150 @@
+package io.valentinsoare.wordtally.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/***
+ * The rules of the .gitignore files met on the way down a directory tree, one instance per directory
+ * with its own .gitignore, chained to the ones of its parents. As in git, the last rule matching a path
+ * decides and the rules of a deeper directory come before the ones of its parents; a rule is matched against
+ * the name only when it has no slash and against the path from its directory otherwise, ! re-includes,
+ * a trailing slash keeps the rule to directories and ** crosses any number of directories.
+ * A rule is matched on the name first, the entry being looked at on disk only for the rules kept to directories.
+ */
+
+final class IgnoreRules {
+    static final String IGNORE_FILE = ".gitignore";
+
+    private final IgnoreRules parent;
+    private final Path directory;
+    private final List<Rule> rules;
+
+    private IgnoreRules(IgnoreRules parent, Path directory, List<Rule> rules) {
+        this.parent = parent;
+        this.directory = directory;
+        this.rules = rules;
+    }
+
+    /**
+     * @param directory The directory being walked.
+     * @param parent    The rules of its parent, null at the top of the walk.
+     * @param errors    Receives the message when the .gitignore cannot be read, to be printed in the order of the output.
+     * @return The rules for the entries of the directory, the ones of the parent when it has no .gitignore of its own.
+     */
+    static IgnoreRules read(Path directory, IgnoreRules parent, Consumer<String> errors) {
+        Path ignoreFile = directory.resolve(IGNORE_FILE);
+
+        if (!Files.isRegularFile(ignoreFile)) {
+            return parent;
+        }
+
+        List<Rule> rules = new ArrayList<>();
+
+        try {
+            for (String line : Files.readAllLines(ignoreFile, StandardCharsets.UTF_8)) {
+                Rule rule = Rule.parse(line);
+
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            errors.accept(String.format("wordtally: %s: the rules cannot be read, %s", ignoreFile, e.getMessage()));
+            return parent;
+        }
+
+        return rules.isEmpty() ? parent : new IgnoreRules(parent, directory, rules);
+    }
+
+    /**
+     * @param entry       An entry of the walked tree, below the directories of the rules.
+     * @param isDirectory Tells, looking at the disk, if the entry is a directory.
+     * @return If the last rule matching the entry ignores it.
+     */
+    boolean isIgnored(Path entry, BooleanSupplier isDirectory) {
+        for (IgnoreRules node = this; node != null; node = node.parent) {
+            Path relative = node.directory.relativize(entry);
+
+            for (int r = node.rules.size() - 1; r >= 0; r--) {
+                Rule rule = node.rules.get(r);
+
+                if (rule.matches(relative) && (!rule.directoryOnly() || isDirectory.getAsBoolean())) {
+                    return !rule.negated();
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private record Rule(List<PathMatcher> matchers, boolean onPath, boolean negated, boolean directoryOnly) {
+
+        /**
+         * @return The rule of a line of a .gitignore, null for the blank lines and the comments.
+         */
+        static Rule parse(String line) {
+            String pattern = line.stripTrailing();
+            boolean negated = false, directoryOnly = false;
+
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+
+            if (pattern.startsWith("!")) {
+                negated = true;
+                pattern = pattern.substring(1);
+            } else if (pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+                pattern = pattern.substring(1);
+            }
+
+            if (pattern.endsWith("/")) {
+                directoryOnly = true;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+
+            boolean onPath = pattern.contains("/");
+            pattern = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+
+            if (pattern.isEmpty()) {
+                return null;
+            }
+
+            pattern = pattern.replace("{", "\\{").replace("}", "\\}");
+            List<String> globs = new ArrayList<>(List.of(pattern));
+
+            if (pattern.startsWith("**/")) {
+                globs.add(pattern.substring(3));
+            }
+
+            if (pattern.contains("/**/")) {
+                globs.add(pattern.replace("/**/", "/"));
+            }
+
+            List<PathMatcher> matchers = globs.stream()
+                    .map(g -> FileSystems.getDefault().getPathMatcher("glob:" + g))
+                    .toList();
+
+            return new Rule(matchers, onPath, negated, directoryOnly);
+        }
+
+        boolean matches(Path relative) {
+            Path candidate = onPath ? relative : relative.getFileName();
+
+            for (PathMatcher m : matchers) {
+                if (m.matches(candidate)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
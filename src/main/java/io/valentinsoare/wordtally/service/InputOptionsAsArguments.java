@@ -1,5 +1,7 @@
 package io.valentinsoare.wordtally.service;
 
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.ScanSettings;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
@@ -13,6 +15,6 @@ public interface InputOptionsAsArguments {
     void runTasksFromInput(String[] arguments, InputStream inputStream);
     void printHelp(Options options);
     List<String> checkFilesAvailability(List<String> locations);
-    List<Long> executeTasks(List<String> options, Path inputFile) throws InterruptedException;
+    CountResult executeTasks(ScanSettings settings, Path inputFile);
 
 }
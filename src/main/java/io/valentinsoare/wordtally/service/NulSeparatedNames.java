@@ -0,0 +1,94 @@
+package io.valentinsoare.wordtally.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/***
+ * The file names of --files0-from, read lazily from a stream where each one ends with a NUL byte, the way
+ * find -print0 writes them. A name is handed over as soon as its NUL arrives, so the counting starts
+ * while the list is still coming, and only the name being read is kept in memory, however many there are.
+ * The last name may lack its NUL. An empty name is handed over as it is, for the caller to report it.
+ */
+
+final class NulSeparatedNames implements Iterator<String> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private byte[] name = new byte[256];
+    private int position;
+    private int limit;
+    private String next;
+    private boolean ended;
+
+    NulSeparatedNames(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * @throws UncheckedIOException If the stream cannot be read.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null && !ended) {
+            next = readName();
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String current = next;
+        next = null;
+
+        return current;
+    }
+
+    private String readName() {
+        int length = 0;
+
+        while (true) {
+            if (position == limit && !fill()) {
+                ended = true;
+                return length == 0 ? null : toName(length);
+            }
+
+            byte b = buffer[position++];
+
+            if (b == 0) {
+                return toName(length);
+            }
+
+            if (length == name.length) {
+                name = Arrays.copyOf(name, name.length * 2);
+            }
+
+            name[length++] = b;
+        }
+    }
+
+    private boolean fill() {
+        try {
+            limit = Math.max(0, inputStream.read(buffer));
+            position = 0;
+
+            return limit > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String toName(int length) {
+        return new String(name, 0, length, Charset.defaultCharset());
+    }
+}
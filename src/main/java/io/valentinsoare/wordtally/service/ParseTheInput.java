@@ -1,6 +1,16 @@
 package io.valentinsoare.wordtally.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.EntryCount;
+import io.valentinsoare.wordtally.engine.FusedScanEngine;
+import io.valentinsoare.wordtally.engine.GzipScanEngine;
+import io.valentinsoare.wordtally.engine.MappedScanEngine;
+import io.valentinsoare.wordtally.engine.Metrics;
+import io.valentinsoare.wordtally.engine.ScanSettings;
+import io.valentinsoare.wordtally.engine.TarScanEngine;
+import io.valentinsoare.wordtally.engine.UniqueLinesEngine;
+import io.valentinsoare.wordtally.engine.ZipScanEngine;
 import io.valentinsoare.wordtally.exception.ErrorMessage;
 import io.valentinsoare.wordtally.exception.Severity;
 import io.valentinsoare.wordtally.outputformat.OutputFormat;
@@ -9,13 +19,12 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
 
 /***
  * Here we defined several methods that are in fact used when files are given as arguments.
@@ -28,17 +37,32 @@ import java.util.stream.Stream;
 public class ParseTheInput implements ParsingAsAService {
 
     private final OutputFormat outputFormat;
+    private final FusedScanEngine fusedScanEngine;
+    private final MappedScanEngine mappedScanEngine;
+    private final GzipScanEngine gzipScanEngine;
+    private final ZipScanEngine zipScanEngine;
+    private final TarScanEngine tarScanEngine;
+    private final UniqueLinesEngine uniqueLinesEngine;
 
     @Autowired
-    private ParseTheInput(OutputFormat outputFormat) {
+    private ParseTheInput(OutputFormat outputFormat, FusedScanEngine fusedScanEngine,
+                          MappedScanEngine mappedScanEngine, GzipScanEngine gzipScanEngine,
+                          ZipScanEngine zipScanEngine, TarScanEngine tarScanEngine,
+                          UniqueLinesEngine uniqueLinesEngine) {
         this.outputFormat = outputFormat;
+        this.fusedScanEngine = fusedScanEngine;
+        this.mappedScanEngine = mappedScanEngine;
+        this.gzipScanEngine = gzipScanEngine;
+        this.zipScanEngine = zipScanEngine;
+        this.tarScanEngine = tarScanEngine;
+        this.uniqueLinesEngine = uniqueLinesEngine;
     }
 
     @Async
     @Override
     public CompletableFuture<Long> countTheNumberOfLines(Path inputFile) {
-        try (Stream<String> execCounting = Files.lines(inputFile).parallel()) {
-           return CompletableFuture.completedFuture(execCounting.count());
+        try {
+            return CompletableFuture.completedFuture(scanFile(inputFile, ScanSettings.of(Metrics.LINES)).lines());
         } catch (IOException e) {
             ErrorMessage msg = ErrorMessage.builder()
                     .severity(Severity.ERROR)
@@ -62,15 +86,8 @@ public class ParseTheInput implements ParsingAsAService {
     @Async
     @Override
     public CompletableFuture<Long> countTheNumberOfChars(Path inputFile) {
-        int bR = 0;
-        long numberOfChars = 0;
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(inputFile), StandardCharsets.UTF_8))) {
-            while ((bR = reader.read()) != -1) {
-                numberOfChars += 1;
-            }
-
-            return CompletableFuture.completedFuture(numberOfChars);
+        try {
+            return CompletableFuture.completedFuture(scanFile(inputFile, ScanSettings.of(Metrics.CHARS)).chars());
         } catch (IOException e) {
             ErrorMessage msg = ErrorMessage.builder()
                     .severity(Severity.ERROR)
@@ -94,17 +111,8 @@ public class ParseTheInput implements ParsingAsAService {
     @Async
     @Override
     public CompletableFuture<Long> countTheNumberOfWords(Path inputFile) {
-        try (Stream<String> s = Files.lines(inputFile).parallel()) {
-            AtomicLong wordCount = new AtomicLong();
-
-            s.flatMap(line -> Stream.of(line.split("\\s")))
-                    .forEach(e -> {
-                        if (!"".equals(e)) {
-                            wordCount.addAndGet(1);
-                        }
-                    });
-
-            return CompletableFuture.completedFuture(wordCount.get());
+        try {
+            return CompletableFuture.completedFuture(scanFile(inputFile, ScanSettings.of(Metrics.WORDS)).words());
         } catch (IOException e) {
             ErrorMessage msg = ErrorMessage.builder()
                     .clazzName(this.getClass().getName())
@@ -127,25 +135,91 @@ public class ParseTheInput implements ParsingAsAService {
     @Async
     @Override
     public CompletableFuture<Long> countTheNumberOfBytes(Path inputFile) {
+        try {
+            return CompletableFuture.completedFuture(scanFile(inputFile, ScanSettings.of(Metrics.BYTES)).bytes());
+        } catch (IOException e) {
+            ErrorMessage msg = ErrorMessage.builder()
+                    .threadName(Thread.currentThread().getName())
+                    .clazzName(this.getClass().getName())
+                    .methodName("countTheNumberOfBytes")
+                    .dateTime(Instant.now().toString())
+                    .severity(Severity.ERROR)
+                    .message(e.getMessage())
+                    .build();
+
+            try {
+                System.out.printf("%s %n", outputFormat.withJSONStyle().writeValueAsString(msg));
+            } catch (JsonProcessingException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        return CompletableFuture.completedFuture(-1L);
+    }
+
+    @Async
+    @Override
+    public CompletableFuture<CountResult> countInOnePass(Path inputFile, ScanSettings settings) {
+        try {
+            return CompletableFuture.completedFuture(scanFile(inputFile, settings));
+        } catch (IOException | RuntimeException e) {
+            ErrorMessage msg = ErrorMessage.builder()
+                    .severity(Severity.ERROR)
+                    .threadName(Thread.currentThread().getName())
+                    .methodName("countInOnePass")
+                    .clazzName(this.getClass().getName())
+                    .dateTime(Instant.now().toString())
+                    .message(e.getMessage())
+                    .build();
+
+            try {
+                System.out.printf("%s %n", outputFormat.withJSONStyle().writeValueAsString(msg));
+            } catch (JsonProcessingException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
 
-        try (InputStream inputStream = Files.newInputStream(inputFile)){
-            long bytesCount = 0;
+        return CompletableFuture.completedFuture(null);
+    }
 
-            int byteRead;
-            byte[] bytes = new byte[2048];
+    @Async
+    @Override
+    public CompletableFuture<List<EntryCount>> countTheArchive(Path inputFile, ScanSettings settings) {
+        try {
+            return CompletableFuture.completedFuture(ZipScanEngine.isZip(inputFile)
+                    ? zipScanEngine.scan(inputFile, settings)
+                    : tarScanEngine.scan(inputFile, settings));
+        } catch (IOException | RuntimeException e) {
+            ErrorMessage msg = ErrorMessage.builder()
+                    .severity(Severity.ERROR)
+                    .threadName(Thread.currentThread().getName())
+                    .methodName("countTheArchive")
+                    .clazzName(this.getClass().getName())
+                    .dateTime(Instant.now().toString())
+                    .message(e.getMessage())
+                    .build();
 
-            while ((byteRead = inputStream.read(bytes)) != -1) {
-                bytesCount += byteRead;
+            try {
+                System.out.printf("%s %n", outputFormat.withJSONStyle().writeValueAsString(msg));
+            } catch (JsonProcessingException ex) {
+                throw new RuntimeException(ex);
             }
+        }
 
-            return CompletableFuture.completedFuture(bytesCount);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public long countUniqueLines(List<Path> inputFiles, long memoryBudget) {
+        try {
+            return uniqueLinesEngine.countUniqueLines(inputFiles, memoryBudget);
         } catch (IOException e) {
             ErrorMessage msg = ErrorMessage.builder()
+                    .severity(Severity.ERROR)
                     .threadName(Thread.currentThread().getName())
+                    .methodName("countUniqueLines")
                     .clazzName(this.getClass().getName())
-                    .methodName("countTheNumberOfBytes")
                     .dateTime(Instant.now().toString())
-                    .severity(Severity.ERROR)
                     .message(e.getMessage())
                     .build();
 
@@ -156,7 +230,36 @@ public class ParseTheInput implements ParsingAsAService {
             }
         }
 
-        return CompletableFuture.completedFuture(-1L);
+        return -1L;
+    }
+
+    /**
+     * Picks the cheapest way to count the file: when only the bytes are requested for a regular file,
+     * the size from its attributes is the answer and the content is not read at all, like wc does with fstat.
+     * The files that report no size (pipes, devices, or the ones under /proc) are read as usual.
+     * Otherwise a gzip file, told by its magic bytes, is counted as the content it decompresses to, except for
+     * the bytes, which are always the size on the disk, as wc gives them, whether they are requested alone or not.
+     */
+    private CountResult scanFile(Path inputFile, ScanSettings settings) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(inputFile, BasicFileAttributes.class);
+        boolean isSizeKnown = attributes.isRegularFile() && attributes.size() > 0;
+
+        if (isSizeKnown && settings.metrics() == Metrics.BYTES) {
+            return new CountResult(0, 0, 0, attributes.size(), 0, null, null, null, null);
+        }
+
+        if (isSizeKnown && GzipScanEngine.isGzip(inputFile)) {
+            CountResult r = gzipScanEngine.scan(inputFile, settings);
+
+            return new CountResult(r.lines(), r.words(), r.chars(), attributes.size(), r.maxLineLength(),
+                    r.vocabulary(), r.patternCounts(), r.byteHistogram(), r.lineLengths());
+        }
+
+        if (isSizeKnown && attributes.size() >= MappedScanEngine.PARALLEL_THRESHOLD) {
+            return mappedScanEngine.scan(inputFile, settings);
+        }
+
+        return fusedScanEngine.scan(inputFile, settings);
     }
 
     @Override
@@ -1,11 +1,15 @@
 package io.valentinsoare.wordtally.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.EntryCount;
+import io.valentinsoare.wordtally.engine.ScanSettings;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface ParsingAsAService {
@@ -14,4 +18,7 @@ public interface ParsingAsAService {
    boolean checkTheReaderIsReady(InputStream inputStream) throws JsonProcessingException;
    CompletableFuture<Long> countTheNumberOfWords(Path inputFile);
    CompletableFuture<Long> countTheNumberOfBytes(Path inputFile);
+   CompletableFuture<CountResult> countInOnePass(Path inputFile, ScanSettings settings);
+   CompletableFuture<List<EntryCount>> countTheArchive(Path inputFile, ScanSettings settings);
+   long countUniqueLines(List<Path> inputFiles, long memoryBudget);
 }
@@ -1,11 +1,14 @@
 package io.valentinsoare.wordtally.service;
 
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.ScanSettings;
+
 import java.io.*;
-import java.nio.file.Path;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 
 public interface ProcessingAsAService {
-    List<Long> execTheTasksWithCountingInParallelWithParallelStreams(List<String> options, InputStream inputStream);
-    List<Long> countingAndPrinting(InputStream inputStream, boolean toCountLines, boolean toCountWords, boolean toCountChars, boolean toCountBytes) throws IOException;
-}
\ No newline at end of file
+    List<Number> execTheTasksWithCountingInParallelWithParallelStreams(ScanSettings settings, InputStream inputStream);
+    CountResult countTheInput(ScanSettings settings, InputStream inputStream);
+    CountResult countingAndPrinting(InputStream inputStream, ScanSettings settings) throws IOException;
+    long countUniqueLines(InputStream inputStream, long memoryBudget);
+}
@@ -1,6 +1,10 @@
 package io.valentinsoare.wordtally.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import io.valentinsoare.wordtally.engine.CountResult;
+import io.valentinsoare.wordtally.engine.PipelinedScanEngine;
+import io.valentinsoare.wordtally.engine.ScanSettings;
+import io.valentinsoare.wordtally.engine.UniqueLinesEngine;
 import io.valentinsoare.wordtally.exception.ErrorMessage;
 import io.valentinsoare.wordtally.exception.Severity;
 import io.valentinsoare.wordtally.outputformat.OutputFormat;
@@ -8,108 +12,64 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Stream;
 
 /***
  *  Here, as you can see by the name, we have the design on how to process the input coming from inputStream (System.in)
- * Here we tackle the input data in a simple way.
- * This is the first version, but in the next one I will use async and parallel processing here and define more methods, one per type of task. In this case, each time we call a method
- * we need to mark the BufferReader object, and then if another method is called, we do a reader. Reset to reset the inputStream to
- * beginning and then mark it again and start the app logic.
- * Also, we are going to need more BufferReader objects, one BufferReader per type of task,
- * and when we create these bufferReaders, we need to use reset in other to go to the beginning of the initial inputStream
+ * The input is read only once, in fixed-size chunks, and the chunks are counted on all the cores while
+ * the next ones are still being read. Nothing is marked or kept around,
+ * so the memory stays the same whether a few bytes or many gigabytes are piped in.
  * */
 
 @Service
 public class ProcessingTheInputFromFD implements ProcessingAsAService {
 
     private final OutputFormat outputFormat;
+    private final PipelinedScanEngine pipelinedScanEngine;
+    private final UniqueLinesEngine uniqueLinesEngine;
 
     @Autowired
-    public ProcessingTheInputFromFD(OutputFormat outputFormat) {
+    public ProcessingTheInputFromFD(OutputFormat outputFormat, PipelinedScanEngine pipelinedScanEngine,
+                                    UniqueLinesEngine uniqueLinesEngine) {
         this.outputFormat = outputFormat;
+        this.pipelinedScanEngine = pipelinedScanEngine;
+        this.uniqueLinesEngine = uniqueLinesEngine;
     }
 
     @Override
-    public List<Long> countingAndPrinting(InputStream inputStream, boolean toCountLines, boolean toCountWords,
-                                          boolean toCountChars, boolean toCountBytes) throws IOException {
-        long numberOfChars = 0, numberOfLines = 0, numberOfWords = 0, numberOfBytes = 0;
-        inputStream.mark(Integer.MAX_VALUE);
-
-        if (toCountBytes) {
-            int readBytes;
-            byte[] buffer = new byte[2048];
-
-            while ((readBytes = inputStream.read(buffer)) != -1) {
-                numberOfBytes += readBytes;
-            }
-        }
-
-        int byteRead;
-        boolean isWord = false;
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-        inputStream.reset();
-
-        while ((byteRead = reader.read()) != -1) {
-
-            if ((toCountLines) && (byteRead == '\n')) {
-                numberOfLines += 1;
-            }
-
-            if (toCountWords) {
-                if (Character.isWhitespace(byteRead)) {
-                    if (isWord) {
-                        isWord = false;
-                    }
-                } else {
-                    if (!isWord) {
-                        isWord = true;
-                        numberOfWords += 1;
-                    }
-                }
-            }
-
-            if (toCountChars) {
-                numberOfChars += 1;
-            }
-        }
-
-        return Stream.of(numberOfLines, numberOfWords, numberOfChars, numberOfBytes)
-                .filter(e -> e != 0)
-                .toList();
+    public CountResult countingAndPrinting(InputStream inputStream, ScanSettings settings) throws IOException {
+        return pipelinedScanEngine.scan(inputStream, settings);
     }
 
     @Override
-    public List<Long> execTheTasksWithCountingInParallelWithParallelStreams(List<String> options, InputStream inputStream) {
-        Map<String, Boolean> taskOptions = initializeTaskOptions(options);
-
+    public List<Number> execTheTasksWithCountingInParallelWithParallelStreams(ScanSettings settings, InputStream inputStream) {
         try {
-            return performCountingTasks(inputStream, taskOptions);
+            return countingAndPrinting(inputStream, settings).columns(settings.metrics());
         } catch (IOException e) {
             handleIOException(e, "executeTasksWithParallelStreams");
             return Collections.emptyList();
         }
     }
 
-    private Map<String, Boolean> initializeTaskOptions(List<String> options) {
-        Map<String, Boolean> taskOptions = new HashMap<>();
-
-        taskOptions.put("lines", options.contains("lines"));
-        taskOptions.put("words", options.contains("words"));
-        taskOptions.put("chars", options.contains("chars"));
-        taskOptions.put("bytes", options.contains("bytes"));
-
-        return taskOptions;
+    @Override
+    public CountResult countTheInput(ScanSettings settings, InputStream inputStream) {
+        try {
+            return countingAndPrinting(inputStream, settings);
+        } catch (IOException e) {
+            handleIOException(e, "countTheInput");
+            return null;
+        }
     }
 
-    private List<Long> performCountingTasks(InputStream inputStream, Map<String, Boolean> taskOptions) throws IOException {
-        return countingAndPrinting(inputStream, taskOptions.get("lines"), taskOptions.get("words"),
-                taskOptions.get("chars"), taskOptions.get("bytes")
-        );
+    @Override
+    public long countUniqueLines(InputStream inputStream, long memoryBudget) {
+        try {
+            return uniqueLinesEngine.countUniqueLines(inputStream, memoryBudget);
+        } catch (IOException e) {
+            handleIOException(e, "countUniqueLines");
+            return -1L;
+        }
     }
 
     private void handleIOException(IOException e, String methodName) {
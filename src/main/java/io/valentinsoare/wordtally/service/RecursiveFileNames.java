@@ -0,0 +1,206 @@
+package io.valentinsoare.wordtally.service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/***
+ * The names of the files to be counted for -r, the operands with every directory among them replaced
+ * by the regular files of its tree. A tree is walked on a fork/join pool, one task per directory,
+ * the subdirectories being forked as they are listed, so the idle threads steal the pending ones and
+ * the walk goes as wide as the tree does. The files found are put in a bounded queue as they are found,
+ * so the counting starts with the first one and the walk waits, without holding a thread of the pool,
+ * whenever it gets too far ahead. The files come in the order the walk finds them, not sorted.
+ * The symbolic links to files are counted, the ones to directories are not followed, so a cycle cannot be walked.
+ * The entries left out by the WalkFilter are dropped as they are listed, before they are looked at on disk.
+ * An entry or a directory that cannot be read is skipped alone, the walk going on with the rest, and the error
+ * is put in the queue in the place of a name, so it is printed between the results like the other errors.
+ */
+
+final class RecursiveFileNames implements Iterator<String> {
+    private static final ForkJoinPool WALKING_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = 4096;
+    private static final String END_OF_WALK = "\0";
+    private static final String ERROR_MARK = "\0!";
+
+    private final Iterator<String> operands;
+    private final WalkFilter filter;
+    private BlockingQueue<String> walked;
+    private String next;
+
+    RecursiveFileNames(Iterator<String> operands, WalkFilter filter) {
+        this.operands = operands;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (walked != null) {
+                String name = takeTheNextFile();
+
+                if (name.equals(END_OF_WALK)) {
+                    walked = null;
+                } else {
+                    next = name;
+                }
+            } else if (operands.hasNext()) {
+                String operand = operands.next();
+
+                if (!operand.isEmpty() && Files.isDirectory(Path.of(operand))) {
+                    startTheWalk(Path.of(operand));
+                } else {
+                    next = operand;
+                }
+            } else {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String current = next;
+        next = null;
+
+        return current;
+    }
+
+    /**
+     * @param name A name given by this iterator.
+     * @return The message of the error met by the walk in its place, null when it is the name of a file.
+     */
+    static String errorIn(String name) {
+        return name.startsWith(ERROR_MARK) ? name.substring(ERROR_MARK.length()) : null;
+    }
+
+    private void startTheWalk(Path directory) {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+        walked = queue;
+        WALKING_POOL.execute(() -> {
+            try {
+                new WalkTheDirectory(directory, directory, null, filter, queue).invoke();
+            } finally {
+                put(queue, END_OF_WALK);
+            }
+        });
+    }
+
+    private String takeTheNextFile() {
+        try {
+            return walked.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END_OF_WALK;
+        }
+    }
+
+    /**
+     * Puts the name in the queue, letting the pool start another thread for the time it waits for room.
+     */
+    private static void put(BlockingQueue<String> queue, String name) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean isPut;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!isPut) {
+                        queue.put(name);
+                        isPut = true;
+                    }
+
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return isPut || (isPut = queue.offer(name));
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class WalkTheDirectory extends RecursiveAction {
+        private final Path directory;
+        private final Path root;
+        private final IgnoreRules parentRules;
+        private final WalkFilter filter;
+        private final BlockingQueue<String> queue;
+
+        private WalkTheDirectory(Path directory, Path root, IgnoreRules parentRules, WalkFilter filter,
+                                 BlockingQueue<String> queue) {
+            this.directory = directory;
+            this.root = root;
+            this.parentRules = parentRules;
+            this.filter = filter;
+            this.queue = queue;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTheDirectory> subdirectories = new ArrayList<>();
+            IgnoreRules rules = filter.rulesFor(directory, parentRules, message -> put(queue, ERROR_MARK + message));
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    Path relative = root.relativize(entry);
+
+                    if (filter.isExcluded(relative, entry, rules, () -> Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attributes;
+
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        reportTheError(entry, e);
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        WalkTheDirectory subdirectory = new WalkTheDirectory(entry, root, rules, filter, queue);
+                        subdirectory.fork();
+                        subdirectories.add(subdirectory);
+                    } else if ((attributes.isRegularFile() || (attributes.isSymbolicLink() && Files.isRegularFile(entry)))
+                            && filter.isIncluded(relative)) {
+                        put(queue, entry.toString());
+                    }
+                }
+            } catch (IOException e) {
+                reportTheError(directory, e);
+            } catch (DirectoryIteratorException e) {
+                reportTheError(directory, e.getCause());
+            }
+
+            for (WalkTheDirectory subdirectory : subdirectories) {
+                subdirectory.join();
+            }
+        }
+
+        private void reportTheError(Path path, IOException e) {
+            String reason = e instanceof AccessDeniedException ? "Permission denied"
+                    : e instanceof NoSuchFileException ? "No such file or directory" : e.getMessage();
+
+            put(queue, ERROR_MARK + String.format("wordtally: %s: %s", path, reason));
+        }
+    }
+}
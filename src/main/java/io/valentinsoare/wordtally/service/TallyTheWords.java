@@ -0,0 +1,108 @@
+package io.valentinsoare.wordtally.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.valentinsoare.wordtally.engine.TallyEngine;
+import io.valentinsoare.wordtally.engine.TokenCount;
+import io.valentinsoare.wordtally.exception.ErrorMessage;
+import io.valentinsoare.wordtally.exception.Severity;
+import io.valentinsoare.wordtally.outputformat.OutputFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * Here we have the --tally mode, instead of the totals it gives every word with the number of times it was found,
+ * the most frequent ones first, and --top-k keeps only the first K of them.
+ * With --approx the top K come from SpaceSaving summaries of a few counters per word asked for, instead of
+ * the table of all the distinct words, so an endless stream can be followed in the same memory.
+ * With --ngrams N the runs of N words in a row are tallied instead of the words, keyed by the words joined with a space.
+ * The words from all the given files are tallied together, or the ones from the standard input when no file is given.
+ */
+
+@Service
+public class TallyTheWords implements TallyingAsAService {
+
+    private static final int COUNTERS_PER_TOP_WORD = 8;
+    private static final int MAX_COUNTERS = 1 << 24;
+
+    private final OutputFormat outputFormat;
+    private final TallyEngine tallyEngine;
+
+    @Autowired
+    public TallyTheWords(OutputFormat outputFormat, TallyEngine tallyEngine) {
+        this.outputFormat = outputFormat;
+        this.tallyEngine = tallyEngine;
+    }
+
+    @Override
+    public List<TokenCount> tallyTheWords(List<Path> inputFiles, int ngramSize, int topK, Charset charset) {
+        try {
+            return tallyEngine.tally(inputFiles, ngramSize).top(topK, charset);
+        } catch (IOException e) {
+            handleIOException(e, "tallyTheWords");
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<TokenCount> tallyTheWords(InputStream inputStream, int ngramSize, int topK, Charset charset) {
+        try {
+            return tallyEngine.tally(inputStream, ngramSize).top(topK, charset);
+        } catch (IOException e) {
+            handleIOException(e, "tallyTheWords");
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<TokenCount> tallyHeavyHitters(List<Path> inputFiles, int ngramSize, int topK, Charset charset) {
+        try {
+            return tallyEngine.tallyHeavyHitters(inputFiles, ngramSize, countersFor(topK)).top(topK, charset);
+        } catch (IOException e) {
+            handleIOException(e, "tallyHeavyHitters");
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<TokenCount> tallyHeavyHitters(InputStream inputStream, int ngramSize, int topK, Charset charset) {
+        try {
+            return tallyEngine.tallyHeavyHitters(inputStream, ngramSize, countersFor(topK)).top(topK, charset);
+        } catch (IOException e) {
+            handleIOException(e, "tallyHeavyHitters");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * More counters than words asked for keep the words at the bottom of the top K apart from the noise,
+     * the error of every count being at most the number of words divided by the number of counters.
+     */
+    private static int countersFor(int topK) {
+        return (int) Math.min(MAX_COUNTERS, (long) topK * COUNTERS_PER_TOP_WORD);
+    }
+
+    private void handleIOException(IOException e, String methodName) {
+        ErrorMessage msg = ErrorMessage.builder()
+                .threadName(Thread.currentThread().getName())
+                .methodName(methodName)
+                .clazzName(this.getClass().getName())
+                .message(e.getMessage())
+                .dateTime(Instant.now().toString())
+                .severity(Severity.ERROR)
+                .build();
+
+        try {
+            System.out.printf("%s %n", outputFormat.withJSONStyle().writeValueAsString(msg));
+        } catch (JsonProcessingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
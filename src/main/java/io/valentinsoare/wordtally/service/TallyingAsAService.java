@@ -0,0 +1,15 @@
+package io.valentinsoare.wordtally.service;
+
+import io.valentinsoare.wordtally.engine.TokenCount;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface TallyingAsAService {
+    List<TokenCount> tallyTheWords(List<Path> inputFiles, int ngramSize, int topK, Charset charset);
+    List<TokenCount> tallyTheWords(InputStream inputStream, int ngramSize, int topK, Charset charset);
+    List<TokenCount> tallyHeavyHitters(List<Path> inputFiles, int ngramSize, int topK, Charset charset);
+    List<TokenCount> tallyHeavyHitters(InputStream inputStream, int ngramSize, int topK, Charset charset);
+}
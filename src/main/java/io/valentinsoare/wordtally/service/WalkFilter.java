@@ -0,0 +1,96 @@
+package io.valentinsoare.wordtally.service;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/***
+ * What the walk of -r leaves out, evaluated inside the walk, on every entry of a directory as it is listed.
+ * An entry matching an --exclude glob, or ignored by the .gitignore rules with --gitignore, is dropped before
+ * it is looked at on disk, and for a directory that prunes the whole subtree, which is never listed.
+ * The --include globs keep only the files matching one of them and do not apply to the directories.
+ * A glob with a slash is matched against the path from the walked directory, any other one against the name.
+ */
+
+final class WalkFilter {
+    static final WalkFilter NONE = new WalkFilter(List.of(), List.of(), false);
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final boolean isGitignoreHonored;
+
+    private WalkFilter(List<Glob> includes, List<Glob> excludes, boolean isGitignoreHonored) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.isGitignoreHonored = isGitignoreHonored;
+    }
+
+    /**
+     * @throws IllegalArgumentException If a glob is not valid.
+     */
+    static WalkFilter of(List<String> includes, List<String> excludes, boolean isGitignoreHonored) {
+        return new WalkFilter(includes.stream().map(Glob::compile).toList(),
+                excludes.stream().map(Glob::compile).toList(), isGitignoreHonored);
+    }
+
+    /**
+     * @param relative    The entry, from the walked directory.
+     * @param entry       The entry, as it is walked.
+     * @param rules       The .gitignore rules of the directory of the entry, null when there are none.
+     * @param isDirectory Tells, looking at the disk, if the entry is a directory.
+     * @return If the entry, and its subtree for a directory, is left out.
+     */
+    boolean isExcluded(Path relative, Path entry, IgnoreRules rules, BooleanSupplier isDirectory) {
+        for (Glob g : excludes) {
+            if (g.matches(relative)) {
+                return true;
+            }
+        }
+
+        if (isGitignoreHonored && relative.getFileName().toString().equals(".git")) {
+            return true;
+        }
+
+        return rules != null && rules.isIgnored(entry, isDirectory);
+    }
+
+    /**
+     * @return If a file the walk found is counted, with its path from the walked directory.
+     */
+    boolean isIncluded(Path relative) {
+        if (includes.isEmpty()) {
+            return true;
+        }
+
+        for (Glob g : includes) {
+            if (g.matches(relative)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param errors Receives the message when the .gitignore of the directory cannot be read.
+     * @return The rules for the entries of the directory, the ones of its parent when there is nothing new.
+     */
+    IgnoreRules rulesFor(Path directory, IgnoreRules parent, Consumer<String> errors) {
+        return isGitignoreHonored ? IgnoreRules.read(directory, parent, errors) : parent;
+    }
+
+    private record Glob(PathMatcher matcher, boolean onPath) {
+        static Glob compile(String glob) {
+            String pattern = glob.length() > 1 && glob.endsWith("/") ? glob.substring(0, glob.length() - 1) : glob;
+
+            return new Glob(FileSystems.getDefault().getPathMatcher("glob:" + pattern), pattern.contains("/"));
+        }
+
+        boolean matches(Path relative) {
+            return matcher.matches(onPath ? relative : relative.getFileName());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package io.valentinsoare.wordtally.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/***
+ * The ranges of an input counted apart and appended in order must give the same counters as the whole input
+ * counted as a single range, wherever the input is cut, which is what the engines rely on when they split
+ * a file into regions or a stream into chunks. The inputs are random runs of words, whitespace, multibyte
+ * sequences and malformed bytes, cut at random offsets, so the cuts fall inside words and inside sequences.
+ * UTF-16 is cut between the units only, as the engines do it, a byte may be left over at the end of the input alone.
+ */
+
+class ScanStateAppendTest {
+    private static final int METRICS = Metrics.LINES | Metrics.WORDS | Metrics.CHARS | Metrics.BYTES
+            | Metrics.MAX_LINE_LENGTH | Metrics.DISTINCT_WORDS;
+    private static final int INPUTS = 300;
+    private static final int MAX_PIECES = 120;
+    private static final int MAX_CUTS = 12;
+
+    private static final List<String> TEXT = List.of("a", "word", "tally", " ", "  ", "\n", "\t", "\r\n",
+            "é", "ß", "€", "中文", "😀", "naïve");
+
+    @Test
+    void appendedUtf8RangesCountLikeOneRange() {
+        List<byte[]> malformed = List.of(new byte[]{(byte) 0x80}, new byte[]{(byte) 0xC3},
+                new byte[]{(byte) 0xE2, (byte) 0x82}, new byte[]{(byte) 0xF0, (byte) 0x9F},
+                new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}, new byte[]{(byte) 0xFF});
+
+        checkRandomCuts(TextEncoding.UTF_8, pieces(StandardCharsets.UTF_8, malformed), 1, 1);
+    }
+
+    @Test
+    void appendedSingleByteRangesCountLikeOneRange() {
+        List<byte[]> highBytes = List.of(new byte[]{(byte) 0xE9}, new byte[]{(byte) 0xA0},
+                new byte[]{(byte) 0x85}, new byte[]{(byte) 0xFF});
+
+        checkRandomCuts(TextEncoding.SINGLE_BYTE, pieces(StandardCharsets.ISO_8859_1, highBytes), 1, 2);
+    }
+
+    @Test
+    void appendedUtf16RangesCountLikeOneRange() {
+        List<byte[]> loneSurrogates = List.of(new byte[]{(byte) 0xD8, 0x3D}, new byte[]{(byte) 0xDE, 0x00});
+        List<byte[]> swappedSurrogates = List.of(new byte[]{0x3D, (byte) 0xD8}, new byte[]{0x00, (byte) 0xDE});
+
+        checkRandomCuts(TextEncoding.UTF_16BE, pieces(StandardCharsets.UTF_16BE, loneSurrogates), 2, 3);
+        checkRandomCuts(TextEncoding.UTF_16LE, pieces(StandardCharsets.UTF_16LE, swappedSurrogates), 2, 4);
+    }
+
+    @Test
+    void countsLikeGnuWc() {
+        byte[] input = ("héllo wörld\n\tindented\tline\n  naïve café 中文 😀\n\n"
+                + "a b last line without a newline").getBytes(StandardCharsets.UTF_8);
+        ScanSettings settings = ScanSettings.of(Metrics.LINES | Metrics.WORDS | Metrics.CHARS | Metrics.BYTES
+                | Metrics.MAX_LINE_LENGTH);
+
+        // LC_ALL=C.UTF-8 wc -lwmcL
+        assertEquals(List.of(4L, 15L, 77L, 88L, 31L), count(settings, input, new int[0]).columns(settings.metrics()));
+    }
+
+    /**
+     * @param unit The size of the code unit, the input is only cut between two units.
+     */
+    private static void checkRandomCuts(TextEncoding encoding, List<byte[]> pieces, int unit, long seed) {
+        Random random = new Random(seed);
+        ScanSettings settings = ScanSettings.builder().metrics(METRICS).encoding(encoding).build();
+
+        for (int i = 0; i < INPUTS; i++) {
+            byte[] input = randomInput(random, pieces, unit);
+            int[] cuts = random.ints(random.nextInt(MAX_CUTS + 1), 0, input.length / unit + 1)
+                    .map(c -> c * unit)
+                    .sorted()
+                    .toArray();
+
+            List<Number> expected = count(settings, input, new int[0]).columns(METRICS);
+            List<Number> actual = count(settings, input, cuts).columns(METRICS);
+
+            assertEquals(expected, actual, String.format("%s input %s cut at %s", encoding,
+                    Arrays.toString(input), Arrays.toString(cuts)));
+        }
+    }
+
+    /**
+     * Counts every range between the cuts on its own state, then appends the states in order.
+     */
+    private static CountResult count(ScanSettings settings, byte[] input, int[] cuts) {
+        ScanState total = new ScanState();
+        ScanKernel kernel = ScanKernels.forInput(settings, ByteBuffer.wrap(input), total);
+        int from = 0;
+
+        for (int c = 0; c <= cuts.length; c++) {
+            int to = c < cuts.length ? cuts[c] : input.length;
+            ScanState state = new ScanState();
+
+            kernel.scan(ByteBuffer.wrap(Arrays.copyOfRange(input, from, to)), state, settings.metrics());
+            total.append(state);
+            from = to;
+        }
+
+        try {
+            return total.toResult(settings);
+        } catch (MalformedTextException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static List<byte[]> pieces(Charset charset, List<byte[]> malformed) {
+        List<byte[]> pieces = new ArrayList<>(malformed);
+
+        for (String t : TEXT) {
+            if (charset.newEncoder().canEncode(t)) {
+                pieces.add(t.getBytes(charset));
+            }
+        }
+
+        return pieces;
+    }
+
+    /**
+     * @param unit The size of the code unit, for UTF-16 a byte may be left over at the end, half of a unit.
+     */
+    private static byte[] randomInput(Random random, List<byte[]> pieces, int unit) {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+
+        for (int p = random.nextInt(MAX_PIECES + 1); p > 0; p--) {
+            input.writeBytes(pieces.get(random.nextInt(pieces.size())));
+        }
+
+        if (unit == 2 && random.nextInt(4) == 0) {
+            input.write('x');
+        }
+
+        return input.toByteArray();
+    }
+}